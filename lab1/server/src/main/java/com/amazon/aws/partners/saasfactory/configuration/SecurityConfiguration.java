@@ -51,6 +51,7 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
                 .antMatchers("/products").authenticated()
                 .antMatchers("/orders").authenticated()
                 .antMatchers("/dashboard").authenticated()
+                .antMatchers("/actuator/**").authenticated()
                 .and()
             .formLogin()
                 .loginPage("/index?signin=1")
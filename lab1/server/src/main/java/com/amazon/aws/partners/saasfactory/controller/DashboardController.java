@@ -42,8 +42,8 @@ public class DashboardController {
 
     @GetMapping("/dashboard")
     public String dashboard(Model model) throws Exception {
-        model.addAttribute("productCount", productService.getProducts().size());
-        model.addAttribute("orderCount", orderService.getOrders().size());
+        model.addAttribute("productCount", productService.getProductCount());
+        model.addAttribute("orderCount", orderService.getOrderCount());
         model.addAttribute("trend", TREND[new Random().nextInt(TREND.length)]);
         return "dashboard";
     }
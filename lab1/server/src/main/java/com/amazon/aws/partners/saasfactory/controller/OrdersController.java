@@ -18,6 +18,11 @@ package com.amazon.aws.partners.saasfactory.controller;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import com.amazon.aws.partners.saasfactory.domain.Order;
 import com.amazon.aws.partners.saasfactory.domain.OrderLineItem;
@@ -48,11 +53,12 @@ public class OrdersController {
 
 	@GetMapping("/orders")
 	public String orders(Model model) throws Exception {
-		List<Order> orders = orderService.getOrders();
-		List<Product> products = productService.getProducts();
+		// Both lists load at the same time on the service executor
+		CompletableFuture<List<Order>> orders = orderService.getOrdersAsync();
+		CompletableFuture<List<Product>> products = productService.getProductsAsync();
 
-		model.addAttribute("orders", orders);
-		model.addAttribute("products", products);
+		model.addAttribute("orders", orders.get());
+		model.addAttribute("products", products.get());
 
 		return "orders";
 	}
@@ -65,13 +71,7 @@ public class OrdersController {
 		order.setBillAddress(order.getShipAddress());
 		
 		order.getLineItems().removeIf(item -> item == null || 0 == item.getQuantity());
-		order.getLineItems().forEach(item -> {
-			try {
-				item.setUnitPurchasePrice(productService.getProduct(item.getProduct().getId()).getPrice());
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}
-		});
+		setUnitPurchasePrices(order);
 		
 		orderService.saveOrder(order);
 		
@@ -85,13 +85,7 @@ public class OrdersController {
 		order.setBillAddress(order.getShipAddress());
 
 		order.getLineItems().removeIf(item -> item == null || 0 == item.getQuantity());
-		order.getLineItems().forEach(item -> {
-			try {
-				item.setUnitPurchasePrice(productService.getProduct(item.getProduct().getId()).getPrice());
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}
-		});
+		setUnitPurchasePrices(order);
 
 		orderService.saveOrder(order);
 		
@@ -106,4 +100,24 @@ public class OrdersController {
 		
 		return "redirect:/orders";
 	}
+
+	// Looks up the current price of every product on the order with one query. A line
+	// for a product that was deleted after the order form was rendered is dropped.
+	private void setUnitPurchasePrices(Order order) throws Exception {
+		Set<Integer> productIds = order.getLineItems().stream()
+				.map(item -> item.getProduct().getId())
+				.collect(Collectors.toSet());
+		Map<Integer, Product> products = productService.getProductsByIds(productIds).stream()
+				.collect(Collectors.toMap(Product::getId, Function.identity()));
+		order.getLineItems().removeIf(item -> {
+			if (!products.containsKey(item.getProduct().getId())) {
+				LOGGER.warn("OrdersController::setUnitPurchasePrices dropping line item for missing product " + item.getProduct().getId());
+				return true;
+			}
+			return false;
+		});
+		for (OrderLineItem item : order.getLineItems()) {
+			item.setUnitPurchasePrice(products.get(item.getProduct().getId()).getPrice());
+		}
+	}
 }
\ No newline at end of file
@@ -26,6 +26,8 @@ public interface OrderDao {
 
     public List<Order> getOrders() throws Exception;
 
+    public int getOrderCount() throws Exception;
+
     public Order saveOrder(Order order) throws Exception;
 
     public Order deleteOrder(Order order) throws Exception;
@@ -19,6 +19,7 @@ package com.amazon.aws.partners.saasfactory.repository;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 
 import java.util.List;
+import java.util.Set;
 
 public interface ProductDao {
 
@@ -26,6 +27,10 @@ public interface ProductDao {
 
     public List<Product> getProducts() throws Exception;
 
+    public int getProductCount() throws Exception;
+
+    public List<Product> getProductsByIds(Set<Integer> productIds) throws Exception;
+
     public Product saveProduct(Product product) throws Exception;
 
     public Product deleteProduct(Product product) throws Exception;
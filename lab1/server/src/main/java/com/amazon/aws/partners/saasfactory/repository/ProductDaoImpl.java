@@ -16,11 +16,13 @@
  */
 package com.amazon.aws.partners.saasfactory.repository;
 
+import com.amazon.aws.partners.saasfactory.configuration.CacheConfiguration;
 import com.amazon.aws.partners.saasfactory.domain.Category;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -33,6 +35,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 @Repository
 public class ProductDaoImpl implements ProductDao {
@@ -74,6 +77,24 @@ public class ProductDaoImpl implements ProductDao {
     }
 
     @Override
+    public int getProductCount() throws Exception {
+        logger.info("ProductDao::getProductCount");
+        return jdbc.queryForObject("SELECT COUNT(*) FROM product", Integer.class);
+    }
+
+    @Override
+    public List<Product> getProductsByIds(Set<Integer> productIds) throws Exception {
+        logger.info("ProductDao::getProductsByIds " + productIds.size());
+        if (productIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String sql = SELECT_PRODUCT_SQL.concat(" WHERE p.product_id = ANY(?)");
+        Integer[] ids = productIds.toArray(new Integer[0]);
+        return jdbc.query(sql, ps -> ps.setArray(1, ps.getConnection().createArrayOf("integer", ids)), new ProductRowMapper());
+    }
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_CACHE, key = "#product.id")
     public Product saveProduct(Product product) throws Exception {
         logger.info("ProductDao::saveProduct " + product);
         if (product.getId() != null && product.getId() > 0) {
@@ -125,6 +146,7 @@ public class ProductDaoImpl implements ProductDao {
     }
 
     @Override
+    @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_CACHE, key = "#product.id")
     public Product deleteProduct(Product product) throws Exception {
         logger.info("ProductDao::deleteProduct " + product);
         int affectedRows = jdbc.update(DELETE_PRODUCT_SQL, new Object[]{product.getId()});
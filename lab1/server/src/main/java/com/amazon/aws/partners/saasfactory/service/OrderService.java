@@ -3,11 +3,16 @@ package com.amazon.aws.partners.saasfactory.service;
 import com.amazon.aws.partners.saasfactory.domain.Order;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface OrderService {
 
     public List<Order> getOrders() throws Exception;
 
+    public CompletableFuture<List<Order>> getOrdersAsync() throws Exception;
+
+    public int getOrderCount() throws Exception;
+
     public Order getOrder(Integer orderId) throws Exception;
 
     public Order saveOrder(Order order) throws Exception;
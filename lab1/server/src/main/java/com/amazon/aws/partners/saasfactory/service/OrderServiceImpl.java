@@ -1,14 +1,21 @@
 package com.amazon.aws.partners.saasfactory.service;
 
+import com.amazon.aws.partners.saasfactory.configuration.AsyncConfiguration;
+import com.amazon.aws.partners.saasfactory.configuration.CacheConfiguration;
 import com.amazon.aws.partners.saasfactory.domain.Order;
 import com.amazon.aws.partners.saasfactory.repository.OrderDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StopWatch;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class OrderServiceImpl implements OrderService {
@@ -19,6 +26,7 @@ public class OrderServiceImpl implements OrderService {
     private OrderDao orderDao;
 
     @Override
+    @Transactional(readOnly = true)
     public List<Order> getOrders() throws Exception {
         logger.info("OrderService::getOrders");
         StopWatch timer = new StopWatch();
@@ -30,6 +38,27 @@ public class OrderServiceImpl implements OrderService {
     }
 
     @Override
+    @Async(AsyncConfiguration.SERVICE_EXECUTOR)
+    @Transactional(readOnly = true)
+    public CompletableFuture<List<Order>> getOrdersAsync() throws Exception {
+        return CompletableFuture.completedFuture(getOrders());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'orderCount'")
+    public int getOrderCount() throws Exception {
+        logger.info("OrderService::getOrderCount");
+        StopWatch timer = new StopWatch();
+        timer.start();
+        int count = orderDao.getOrderCount();
+        timer.stop();
+        logger.info("OrderService::getOrderCount exec " + timer.getTotalTimeMillis());
+        return count;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
     public Order getOrder(Integer orderId) throws Exception {
         logger.info("OrderService::getOrder " + orderId);
         StopWatch timer = new StopWatch();
@@ -41,6 +70,8 @@ public class OrderServiceImpl implements OrderService {
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'orderCount'")
     public Order saveOrder(Order order) throws Exception {
         Integer orderId = order != null ? order.getId() : null;
         logger.info("OrderService::saveOrder " + orderId);
@@ -53,6 +84,8 @@ public class OrderServiceImpl implements OrderService {
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'orderCount'")
     public Order deleteOrder(Order order) throws Exception {
         Integer orderId = order != null ? order.getId() : null;
         logger.info("OrderService::deleteOrder " + orderId);
@@ -4,11 +4,19 @@ import com.amazon.aws.partners.saasfactory.domain.Category;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public interface ProductService {
 
     public List<Product> getProducts() throws Exception;
 
+    public CompletableFuture<List<Product>> getProductsAsync() throws Exception;
+
+    public List<Product> getProductsByIds(Set<Integer> productIds) throws Exception;
+
+    public int getProductCount() throws Exception;
+
     public Product getProduct(Integer productId) throws Exception;
 
     public Product saveProduct(Product product) throws Exception;
@@ -1,5 +1,7 @@
 package com.amazon.aws.partners.saasfactory.service;
 
+import com.amazon.aws.partners.saasfactory.configuration.AsyncConfiguration;
+import com.amazon.aws.partners.saasfactory.configuration.CacheConfiguration;
 import com.amazon.aws.partners.saasfactory.domain.Category;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 import com.amazon.aws.partners.saasfactory.repository.CategoryDao;
@@ -7,10 +9,16 @@ import com.amazon.aws.partners.saasfactory.repository.ProductDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StopWatch;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class ProductServiceImpl implements ProductService {
@@ -23,6 +31,7 @@ public class ProductServiceImpl implements ProductService {
     private CategoryDao categoryDao;
 
     @Override
+    @Transactional(readOnly = true)
     public List<Product> getProducts() throws Exception {
         logger.info("ProductService::getProducts");
         StopWatch timer = new StopWatch();
@@ -34,6 +43,39 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Async(AsyncConfiguration.SERVICE_EXECUTOR)
+    @Transactional(readOnly = true)
+    public CompletableFuture<List<Product>> getProductsAsync() throws Exception {
+        return CompletableFuture.completedFuture(getProducts());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Product> getProductsByIds(Set<Integer> productIds) throws Exception {
+        logger.info("ProductService::getProductsByIds " + productIds.size());
+        StopWatch timer = new StopWatch();
+        timer.start();
+        List<Product> products = productDao.getProductsByIds(productIds);
+        timer.stop();
+        logger.info("ProductService::getProductsByIds exec " + timer.getTotalTimeMillis());
+        return products;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'productCount'")
+    public int getProductCount() throws Exception {
+        logger.info("ProductService::getProductCount");
+        StopWatch timer = new StopWatch();
+        timer.start();
+        int count = productDao.getProductCount();
+        timer.stop();
+        logger.info("ProductService::getProductCount exec " + timer.getTotalTimeMillis());
+        return count;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
     public Product getProduct(Integer productId) throws Exception {
         logger.info("ProductService::getProduct " + productId);
         StopWatch timer = new StopWatch();
@@ -45,6 +87,8 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'productCount'")
     public Product saveProduct(Product product) throws Exception {
         Integer productId = product != null ? product.getId() : null;
         logger.info("ProductService::saveProduct " + productId);
@@ -57,6 +101,8 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'productCount'")
     public Product deleteProduct(Product product) throws Exception {
         Integer productId = product != null ? product.getId() : null;
         logger.info("ProductService::deleteProduct " + productId);
@@ -69,6 +115,7 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public List<Category> getCategories() throws Exception {
         logger.info("ProductService::getCategories");
         StopWatch timer = new StopWatch();
@@ -80,6 +127,7 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Category getCategory(Integer categoryId) throws Exception {
         logger.info("ProductService::getCategory");
         StopWatch timer = new StopWatch();
@@ -91,6 +139,7 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Category getCategoryByName(String name) throws Exception {
         logger.info("ProductService::getCategoryByName");
         StopWatch timer = new StopWatch();
@@ -18,18 +18,23 @@
 cd /home/ec2-user
 
 # Get the tenant who owns this environment
-PREFIX=''
+AWS_REGION=$(curl -s http://169.254.169.254/latest/dynamic/instance-identity/document | jq -r '.region')
 if [ -f /etc/profile.d/saas.sh ]; then
   . /etc/profile.d/saas.sh
-  PREFIX="${TENANT_ID}_"
+  # A tenant's settings all live under its own path so fetch them in one call
+  TENANT_CONFIG="/saas-factory-srvls-wrkshp/tenant/${TENANT_ID}"
+  PARAMS=$(aws ssm get-parameters-by-path --region $AWS_REGION --path "${TENANT_CONFIG}")
+  DB_HOST=$(echo "$PARAMS" | jq -r --arg n "${TENANT_CONFIG}/DB_HOST" '.Parameters[] | select(.Name == $n) | .Value')
+  DB_NAME=$(echo "$PARAMS" | jq -r --arg n "${TENANT_CONFIG}/DB_NAME" '.Parameters[] | select(.Name == $n) | .Value')
+  DB_USER=$(echo "$PARAMS" | jq -r --arg n "${TENANT_CONFIG}/DB_USER" '.Parameters[] | select(.Name == $n) | .Value')
+  DB_PASS="${TENANT_CONFIG}/DB_PASS"
+else
+  DB_HOST=$(aws ssm get-parameters --region $AWS_REGION --names "DB_HOST" | jq -r '.Parameters[0].Value')
+  DB_NAME=$(aws ssm get-parameters --region $AWS_REGION --names "DB_NAME" | jq -r '.Parameters[0].Value')
+  DB_USER=$(aws ssm get-parameters --region $AWS_REGION --names "DB_USER" | jq -r '.Parameters[0].Value')
+  DB_PASS="DB_PASS"
 fi
 
-AWS_REGION=$(curl -s http://169.254.169.254/latest/dynamic/instance-identity/document | jq -r '.region')
-DB_HOST=$(aws ssm get-parameters --region $AWS_REGION --names "${PREFIX}DB_HOST" | jq -r '.Parameters[0].Value')
-DB_NAME=$(aws ssm get-parameters --region $AWS_REGION --names "${PREFIX}DB_NAME" | jq -r '.Parameters[0].Value')
-DB_USER=$(aws ssm get-parameters --region $AWS_REGION --names "${PREFIX}DB_USER" | jq -r '.Parameters[0].Value')
-DB_PASS="${PREFIX}DB_PASS"
-
 export AWS_REGION DB_HOST DB_NAME DB_USER DB_PASS
 
 java -jar /home/ec2-user/application.jar > /dev/null 2> /dev/null < /dev/null &
\ No newline at end of file
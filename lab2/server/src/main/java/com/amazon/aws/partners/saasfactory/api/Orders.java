@@ -18,14 +18,22 @@ package com.amazon.aws.partners.saasfactory.api;
 
 import com.amazon.aws.partners.saasfactory.domain.Order;
 import com.amazon.aws.partners.saasfactory.service.OrderService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @RestController
@@ -36,6 +44,8 @@ public class Orders {
 
     @Autowired
     private OrderService orderService;
+    @Autowired
+    private ObjectMapper objectMapper;
 
     @CrossOrigin
     @GetMapping(path = "/orders/{id}")
@@ -43,10 +53,48 @@ public class Orders {
         return orderService.getOrder(id);
     }
 
+    // Same conditional GET handling as Products::getProducts
     @CrossOrigin
     @GetMapping(path = "/orders")
-    public List<Order> getOrders() throws Exception {
-        return orderService.getOrders();
+    public ResponseEntity<List<Order>> getOrders(WebRequest request) throws Exception {
+        String etag = orderService.getOrdersVersion();
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(orderService.getOrders());
+    }
+
+    // Streaming mode for big tenants: ?stream=true writes each order to the response
+    // as the database cursor reads it instead of building the whole list first
+    @CrossOrigin
+    @GetMapping(path = "/orders", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamOrders(WebRequest request) throws Exception {
+        String etag = orderService.getOrdersVersion();
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+        }
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+                json.writeStartArray();
+                orderService.streamOrders(order -> {
+                    try {
+                        json.writeObject(order);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                json.writeEndArray();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
     }
 
     @CrossOrigin
@@ -19,14 +19,22 @@ package com.amazon.aws.partners.saasfactory.api;
 import com.amazon.aws.partners.saasfactory.domain.Category;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 import com.amazon.aws.partners.saasfactory.service.ProductService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @RestController
@@ -37,6 +45,8 @@ public class Products {
 
 	@Autowired
 	private ProductService productService;
+	@Autowired
+	private ObjectMapper objectMapper;
 
 	@CrossOrigin
 	@GetMapping(path = "/products/{id}")
@@ -45,11 +55,51 @@ public class Products {
 		return productService.getProduct(id);
 	}
 
+	// The dashboard polls this constantly. The ETag comes from a cheap row version
+	// query so an unchanged list costs neither loading nor serializing.
 	@CrossOrigin
 	@GetMapping(path = "/products")
-	public List<Product> getProducts() throws Exception {
+	public ResponseEntity<List<Product>> getProducts(WebRequest request) throws Exception {
 		logger.info("Products::getProducts");
-		return productService.getProducts();
+		String etag = productService.getProductsVersion();
+		if (request.checkNotModified(etag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+		}
+		return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(productService.getProducts());
+	}
+
+	// Streaming mode for big tenants: ?stream=true writes each product to the response
+	// as the database cursor reads it instead of building the whole list first
+	@CrossOrigin
+	@GetMapping(path = "/products", params = "stream=true")
+	public ResponseEntity<StreamingResponseBody> streamProducts(WebRequest request) throws Exception {
+		logger.info("Products::streamProducts");
+		String etag = productService.getProductsVersion();
+		if (request.checkNotModified(etag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+		}
+		StreamingResponseBody body = out -> {
+			try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+				json.writeStartArray();
+				productService.streamProducts(product -> {
+					try {
+						json.writeObject(product);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				json.writeEndArray();
+			} catch (IOException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		};
+		return ResponseEntity.ok()
+				.eTag(etag)
+				.cacheControl(CacheControl.noCache())
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(body);
 	}
 
 	@CrossOrigin
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory.configuration;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.support.SimpleCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Arrays;
+
+/**
+ * Turns on the Spring cache abstraction backed by Caffeine. Each cache gets
+ * its own spec from application.properties so size, TTL and stats recording
+ * can be tuned without a rebuild. Because the caches exist at startup,
+ * Actuator binds their hit/miss/eviction metrics automatically.
+ *
+ * The caches are transaction aware: a put or evict made inside a service
+ * transaction is applied after it commits, so a concurrent reader can't
+ * re-cache the row we are in the middle of changing.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfiguration {
+
+    public static final String PRODUCT_CACHE = "products";
+    public static final String DASHBOARD_CACHE = "dashboard";
+
+    @Bean
+    public CacheManager cacheManager(@Value("${cache.products.spec}") String productsSpec,
+                                     @Value("${cache.dashboard.spec}") String dashboardSpec) {
+        SimpleCacheManager cacheManager = new SimpleCacheManager();
+        cacheManager.setCaches(Arrays.asList(
+                new CaffeineCache(PRODUCT_CACHE, Caffeine.from(productsSpec).build()),
+                new CaffeineCache(DASHBOARD_CACHE, Caffeine.from(dashboardSpec).build())
+        ));
+        // Not a bean itself any more, so initialize it here
+        cacheManager.initializeCaches();
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+}
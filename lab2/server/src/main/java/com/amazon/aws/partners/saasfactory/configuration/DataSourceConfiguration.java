@@ -0,0 +1,109 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replaces the auto-configured DataSource with a writer pool, an optional
+ * reader pool and a routing DataSource in front of them. Services mark their
+ * queries @Transactional(readOnly = true) to land on the reader. Without a
+ * datasource.reader.url every connection comes from the writer pool.
+ *
+ * Both pools take their settings from spring.datasource.hikari. When
+ * maximum-pool-size isn't set there, it is sized from the CPU count: about
+ * two connections per core saturates PostgreSQL on a small instance, capped
+ * by how many requests we actually expect to hit the database at once.
+ */
+@Configuration
+public class DataSourceConfiguration {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(DataSourceConfiguration.class);
+
+    @Value("${datasource.pool.expected-concurrency}")
+    private int expectedConcurrency;
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource writerDataSource(DataSourceProperties properties) {
+        HikariDataSource writer = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        writer.setPoolName("writer");
+        writer.setMaximumPoolSize(defaultPoolSize());
+        return writer;
+    }
+
+    @Bean
+    @ConditionalOnProperty("datasource.reader.url")
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource readerDataSource(DataSourceProperties properties, Environment environment) {
+        HikariDataSource reader = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .url(environment.getProperty("datasource.reader.url"))
+                .build();
+        reader.setPoolName("reader");
+        reader.setReadOnly(true);
+        reader.setMaximumPoolSize(defaultPoolSize());
+        return reader;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("writerDataSource") DataSource writerDataSource,
+                                 @Qualifier("readerDataSource") ObjectProvider<DataSource> readerDataSource) {
+        DataSource reader = readerDataSource.getIfAvailable();
+        if (reader == null) {
+            LOGGER.info("No read replica configured, read-only transactions will use the writer");
+            reader = writerDataSource;
+        }
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(ReadWriteRoutingDataSource.WRITER, writerDataSource);
+        targets.put(ReadWriteRoutingDataSource.READER, reader);
+
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource();
+        routingDataSource.setTargetDataSources(targets);
+        routingDataSource.setDefaultTargetDataSource(writerDataSource);
+        routingDataSource.afterPropertiesSet();
+
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    // Explicit spring.datasource.hikari.maximum-pool-size still wins because
+    // the properties are bound after the bean method returns
+    private int defaultPoolSize() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int poolSize = Math.max(4, Math.min(cores * 2 + 1, expectedConcurrency));
+        LOGGER.info("Default connection pool size " + poolSize + " for " + cores + " cores");
+        return poolSize;
+    }
+}
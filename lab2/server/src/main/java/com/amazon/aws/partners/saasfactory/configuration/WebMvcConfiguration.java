@@ -16,12 +16,25 @@
  */
 package com.amazon.aws.partners.saasfactory.configuration;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
-public class WebMvcConfiguration {
+public class WebMvcConfiguration implements WebMvcConfigurer {
+
+    @Autowired
+    @Qualifier(AsyncConfiguration.STREAMING_EXECUTOR)
+    private ThreadPoolTaskExecutor streamingExecutor;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingExecutor);
+    }
 
     public WebMvcConfigurer corsConfigurer() {
         return new WebMvcConfigurer() {
@@ -16,10 +16,12 @@
  */
 package com.amazon.aws.partners.saasfactory.repository;
 
+import com.amazon.aws.partners.saasfactory.configuration.CacheConfiguration;
 import com.amazon.aws.partners.saasfactory.domain.Category;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -65,6 +67,7 @@ public class CategoryDaoImpl implements CategoryDao {
     }
 
     @Override
+    @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_CACHE, allEntries = true)
     public Category saveCategory(Category category) throws Exception {
         logger.info("CategoryDao::saveCategory " + category);
         if (category.getId() != null && category.getId() > 0) {
@@ -97,6 +100,7 @@ public class CategoryDaoImpl implements CategoryDao {
     }
 
     @Override
+    @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_CACHE, allEntries = true)
     public Category deleteCategory(Category category) throws Exception {
         logger.info("CategoryDao::deleteCategory " + category);
         int affectedRows = jdbc.update("DELETE FROM category WHERE category_id = ?", new Object[]{category.getId()});
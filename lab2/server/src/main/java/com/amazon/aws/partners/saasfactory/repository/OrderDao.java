@@ -19,6 +19,7 @@ package com.amazon.aws.partners.saasfactory.repository;
 import com.amazon.aws.partners.saasfactory.domain.Order;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface OrderDao {
     
@@ -26,6 +27,12 @@ public interface OrderDao {
 
     public List<Order> getOrders() throws Exception;
 
+    public void streamOrders(Consumer<Order> consumer) throws Exception;
+
+    public int getOrderCount() throws Exception;
+
+    public String getOrdersVersion() throws Exception;
+
     public Order saveOrder(Order order) throws Exception;
 
     public Order deleteOrder(Order order) throws Exception;
@@ -16,21 +16,31 @@
  */
 package com.amazon.aws.partners.saasfactory.repository;
 
+import com.amazon.aws.partners.saasfactory.configuration.CacheConfiguration;
 import com.amazon.aws.partners.saasfactory.domain.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Repository
 public class OrderDaoImpl implements OrderDao {
@@ -52,25 +62,121 @@ public class OrderDaoImpl implements OrderDao {
             "WHERE order_fulfillment_id = ?";
     private final static String DELETE_ORDER_SQL = "DELETE FROM order_fulfillment WHERE order_fulfillment_id = ?";
     private final static String DELETE_ORDER_LINE_ITEMS_SQL = "DELETE FROM order_line_item WHERE order_fulfillment_id = ?";
+    private final static String SELECT_ORDER_LINE_ITEMS_SQL = "SELECT order_line_item_id, order_fulfillment_id, product_id, quantity, unit_purchase_price " +
+            "FROM order_line_item WHERE order_fulfillment_id = ANY(?)";
+    private final static String INSERT_ORDER_LINE_ITEM_SQL = "INSERT INTO order_line_item (order_line_item_id, order_fulfillment_id, product_id, quantity, unit_purchase_price) " +
+            "VALUES (?, ?, ?, ?, ?)";
+    private final static String NEXT_ORDER_LINE_ITEM_IDS_SQL = "SELECT nextval(pg_get_serial_sequence('order_line_item', 'order_line_item_id'))::integer " +
+            "FROM generate_series(1, ?)";
+    private final static String UPDATE_ORDER_LINE_ITEM_SQL = "UPDATE order_line_item SET product_id = ?, quantity = ?, unit_purchase_price = ? " +
+            "WHERE order_line_item_id = ?";
+    // One row per line item, with the order columns repeated and the product and
+    // its category joined in, sorted so each order's rows arrive together
+    private final static String STREAM_ORDERS_SQL = "SELECT o.order_fulfillment_id, o.order_date, o.ship_date, " +
+            "p.purchaser_id, p.first_name, p.last_name, " +
+            "o.ship_to_line1, o.ship_to_line2, o.ship_to_city, o.ship_to_state, o.ship_to_postal_code, " +
+            "o.bill_to_line1, o.bill_to_line2, o.bill_to_city, o.bill_to_state, o.bill_to_postal_code, " +
+            "li.order_line_item_id, li.quantity, li.unit_purchase_price, " +
+            "pr.product_id, pr.sku, pr.product, pr.price, c.category_id, c.category " +
+            "FROM order_fulfillment o " +
+            "INNER JOIN purchaser p ON o.purchaser_id = p.purchaser_id " +
+            "LEFT OUTER JOIN order_line_item li ON o.order_fulfillment_id = li.order_fulfillment_id " +
+            "LEFT OUTER JOIN product pr ON li.product_id = pr.product_id " +
+            "LEFT OUTER JOIN (SELECT product_id, MAX(category_id) AS category_id FROM product_categories GROUP BY product_id) AS pc " +
+            "ON pr.product_id = pc.product_id " +
+            "LEFT OUTER JOIN category c ON pc.category_id = c.category_id " +
+            "ORDER BY o.order_fulfillment_id, li.order_line_item_id";
+    private final static String DELETE_ORDER_LINE_ITEMS_BY_ID_SQL = "DELETE FROM order_line_item WHERE order_fulfillment_id = ? AND order_line_item_id = ANY(?)";
+
+    // Bumped by triggers on every table the order list is built from (see bootstrap.sql),
+    // so a conditional GET is a short primary key range scan no matter how many orders there are
+    private final static String SELECT_ORDERS_VERSION_SQL = "SELECT SUM(version)::text FROM data_version WHERE name = 'orders'";
 
     @Autowired
     private JdbcTemplate jdbc;
     @Autowired
     private ProductDao productDao;
+    @Autowired
+    private CacheManager cacheManager;
 
     @Override
     public Order getOrder(Integer orderId) throws Exception {
         String sql = SELECT_ORDER_SQL.concat(" WHERE order_fulfillment_id = ?");
-        return jdbc.queryForObject(sql, new Object[]{orderId}, new OrderRowMapper());
+        Order order = jdbc.queryForObject(sql, new Object[]{orderId}, new OrderRowMapper());
+        loadOrderLineItems(Collections.singletonList(order));
+        return order;
     }
 
     @Override
     public List<Order> getOrders() throws Exception {
-        return jdbc.query(SELECT_ORDER_SQL, new OrderRowMapper());
+        List<Order> orders = jdbc.query(SELECT_ORDER_SQL, new OrderRowMapper());
+        if (orders == null) {
+            orders = Collections.emptyList();
+        }
+        loadOrderLineItems(orders);
+        return orders;
+    }
+
+    // Hands each order to the consumer as soon as its last line item has been read,
+    // so only one order is held in memory at a time. Must run inside a transaction
+    // for the fetch size to take effect.
+    @Override
+    public void streamOrders(Consumer<Order> consumer) throws Exception {
+        logger.info("OrderDao::streamOrders");
+        OrderRowMapper orderRowMapper = new OrderRowMapper();
+        Order[] current = new Order[1];
+        jdbc.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(STREAM_ORDERS_SQL);
+            ps.setFetchSize(ProductDaoImpl.STREAM_FETCH_SIZE);
+            return ps;
+        }, (RowCallbackHandler) result -> {
+            int orderId = result.getInt("order_fulfillment_id");
+            if (current[0] == null || current[0].getId() != orderId) {
+                if (current[0] != null) {
+                    consumer.accept(current[0]);
+                }
+                current[0] = orderRowMapper.mapRow(result, 0);
+            }
+            result.getInt("order_line_item_id");
+            if (!result.wasNull()) {
+                Product product = new Product(result.getInt("product_id"), result.getString("sku"), result.getString("product"), result.getBigDecimal("price"));
+                product.setCategory(new Category(result.getInt("category_id"), result.getString("category")));
+                current[0].getLineItems().add(new OrderLineItem(
+                        result.getInt("order_line_item_id"),
+                        orderId,
+                        product,
+                        result.getInt("quantity"),
+                        result.getBigDecimal("unit_purchase_price")
+                ));
+            }
+        });
+        if (current[0] != null) {
+            consumer.accept(current[0]);
+        }
     }
 
     @Override
+    public String getOrdersVersion() throws Exception {
+        return jdbc.queryForObject(SELECT_ORDERS_VERSION_SQL, String.class);
+    }
+
+    @Override
+    public int getOrderCount() throws Exception {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM order_fulfillment", Integer.class);
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
     public Order saveOrder(Order order) throws Exception {
+        List<OrderLineItem> unpriced = new ArrayList<>();
+        for (OrderLineItem lineItem : order.getLineItems()) {
+            if (lineItem.getUnitPurchasePrice() == null) {
+                unpriced.add(lineItem);
+            }
+        }
+        if (!unpriced.isEmpty()) {
+            fillMissingPrices(unpriced, getLineItemProducts(unpriced));
+        }
         if (order.getId() != null && order.getId() > 0) {
             return updateOrder(order);
         } else {
@@ -138,8 +244,10 @@ public class OrderDaoImpl implements OrderDao {
         }
 
         // Now we can save the line items for this order
-        List<OrderLineItem> lineItems = saveOrderLineItems(order.getId(), order.getLineItems());
-        order.setLineItems(lineItems);
+        for (OrderLineItem lineItem : order.getLineItems()) {
+            lineItem.setOrderId(order.getId());
+        }
+        insertOrderLineItems(order.getLineItems());
 
         return order;
     }
@@ -173,16 +281,21 @@ public class OrderDaoImpl implements OrderDao {
                 billTo.getPostalCode(),
                 order.getId()
         );
-        
-        deleteOrderLineItems(order.getId());
-        saveOrderLineItems(order.getId(), order.getLineItems());
-        
-        Order updatedOrder = getOrder(order.getId());
-        
-        return updatedOrder;
+
+        updateOrderLineItems(order.getId(), order.getLineItems());
+
+        // Everything but the products came from the caller, so resolve those
+        // instead of reading the whole order back
+        Map<Integer, Product> products = getLineItemProducts(order.getLineItems());
+        for (OrderLineItem lineItem : order.getLineItems()) {
+            lineItem.setProduct(products.get(lineItem.getProduct().getId()));
+        }
+
+        return order;
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public Order deleteOrder(Order order) throws Exception {
         logger.info("OrderDao::deleteOrder " + order);
 
@@ -194,40 +307,148 @@ public class OrderDaoImpl implements OrderDao {
         return order;
     }
 
-    private List<OrderLineItem> getOrderLineItems(Integer orderId) throws Exception {
-        String sql = "SELECT order_line_item_id, order_fulfillment_id, product_id, quantity, unit_purchase_price " +
-                "FROM order_line_item WHERE order_fulfillment_id = ?";
-        List<OrderLineItem> lineItems = jdbc.query(sql, new Object[]{orderId}, new OrderLineItemRowMapper());
-        return lineItems;
+    // Loads the line items and their products for all of the orders with a fixed number
+    // of set-based queries instead of one query per order plus one per product
+    private void loadOrderLineItems(List<Order> orders) throws Exception {
+        if (orders.isEmpty()) {
+            return;
+        }
+        Map<Integer, Order> ordersById = new HashMap<>();
+        for (Order order : orders) {
+            order.setLineItems(new ArrayList<>());
+            ordersById.put(order.getId(), order);
+        }
+        Integer[] orderIds = ordersById.keySet().toArray(new Integer[0]);
+        List<OrderLineItem> lineItems = jdbc.query(SELECT_ORDER_LINE_ITEMS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("integer", orderIds)),
+                new OrderLineItemRowMapper()
+        );
+        Map<Integer, Product> products = getLineItemProducts(lineItems);
+        for (OrderLineItem lineItem : lineItems) {
+            lineItem.setProduct(products.get(lineItem.getProduct().getId()));
+            ordersById.get(lineItem.getOrderId()).getLineItems().add(lineItem);
+        }
     }
 
-    private List<OrderLineItem> saveOrderLineItems(Integer orderId, List<OrderLineItem> lineItems) throws Exception {
-        List<OrderLineItem> insertedItems = new ArrayList<>();
+    private Map<Integer, Product> getLineItemProducts(List<OrderLineItem> lineItems) throws Exception {
+        // ProductDaoImpl evicts from this cache whenever a product is saved or deleted
+        Cache productCache = cacheManager.getCache(CacheConfiguration.PRODUCT_CACHE);
+        Map<Integer, Product> products = new HashMap<>();
+        Set<Integer> uncachedProductIds = new HashSet<>();
+        for (OrderLineItem lineItem : lineItems) {
+            Integer productId = lineItem.getProduct().getId();
+            Product product = productCache.get(productId, Product.class);
+            if (product != null) {
+                products.put(productId, product);
+            } else {
+                uncachedProductIds.add(productId);
+            }
+        }
+        if (!uncachedProductIds.isEmpty()) {
+            for (Product product : productDao.getProductsByIds(uncachedProductIds)) {
+                productCache.put(product.getId(), product);
+                products.put(product.getId(), product);
+            }
+        }
+        return products;
+    }
+
+    private void updateOrderLineItems(Integer orderId, List<OrderLineItem> lineItems) throws Exception {
+        List<OrderLineItem> existingItems = jdbc.query(SELECT_ORDER_LINE_ITEMS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("integer", new Integer[]{orderId})),
+                new OrderLineItemRowMapper()
+        );
+        LineItemChanges changes = diffLineItems(orderId, existingItems, lineItems);
+
+        if (!changes.deletes.isEmpty()) {
+            Integer[] deletedIds = changes.deletes.toArray(new Integer[0]);
+            jdbc.update(DELETE_ORDER_LINE_ITEMS_BY_ID_SQL, ps -> {
+                ps.setInt(1, orderId);
+                ps.setArray(2, ps.getConnection().createArrayOf("integer", deletedIds));
+            });
+        }
+        if (!changes.updates.isEmpty()) {
+            List<Object[]> updates = new ArrayList<>();
+            for (OrderLineItem lineItem : changes.updates) {
+                updates.add(new Object[]{lineItem.getProduct().getId(), lineItem.getQuantity(), lineItem.getUnitPurchasePrice(), lineItem.getId()});
+            }
+            jdbc.batchUpdate(UPDATE_ORDER_LINE_ITEM_SQL, updates);
+        }
+        insertOrderLineItems(changes.inserts);
+        logger.info("OrderDao::updateOrderLineItems " + orderId + " inserted " + changes.inserts.size() + ", updated " + changes.updates.size() + ", deleted " + changes.deletes.size());
+    }
+
+    // unit_purchase_price is NOT NULL, so a line item posted without a price is sold
+    // at the product's current price. One for a product we can't find is rejected.
+    static void fillMissingPrices(List<OrderLineItem> lineItems, Map<Integer, Product> products) {
+        for (OrderLineItem lineItem : lineItems) {
+            if (lineItem.getUnitPurchasePrice() == null) {
+                Product product = products.get(lineItem.getProduct().getId());
+                if (product == null || product.getPrice() == null) {
+                    throw new IllegalArgumentException("No price for product " + lineItem.getProduct().getId());
+                }
+                lineItem.setUnitPurchasePrice(product.getPrice());
+            }
+        }
+    }
+
+    // Diffs the requested line items against the stored ones so unchanged rows are
+    // left alone. The web clients don't post line item ids, so an incoming item
+    // without an id is matched to an existing row for the same product.
+    static LineItemChanges diffLineItems(Integer orderId, List<OrderLineItem> existingItems, List<OrderLineItem> lineItems) {
+        Map<Integer, OrderLineItem> unmatched = new LinkedHashMap<>();
+        for (OrderLineItem existing : existingItems) {
+            unmatched.put(existing.getId(), existing);
+        }
+
+        LineItemChanges changes = new LineItemChanges();
         for (OrderLineItem lineItem : lineItems) {
             lineItem.setOrderId(orderId);
-            insertedItems.add(saveOrderLineItem(lineItem));
+            OrderLineItem existing = null;
+            if (lineItem.getId() != null && unmatched.containsKey(lineItem.getId())) {
+                existing = unmatched.remove(lineItem.getId());
+            } else {
+                for (OrderLineItem candidate : unmatched.values()) {
+                    if (candidate.getProduct().getId().equals(lineItem.getProduct().getId())) {
+                        existing = unmatched.remove(candidate.getId());
+                        break;
+                    }
+                }
+            }
+            if (existing == null) {
+                changes.inserts.add(lineItem);
+            } else {
+                lineItem.setId(existing.getId());
+                if (!existing.getProduct().getId().equals(lineItem.getProduct().getId())
+                        || !existing.getQuantity().equals(lineItem.getQuantity())
+                        || existing.getUnitPurchasePrice().compareTo(lineItem.getUnitPurchasePrice()) != 0) {
+                    changes.updates.add(lineItem);
+                }
+            }
         }
-        return insertedItems;
+        changes.deletes.addAll(unmatched.keySet());
+        return changes;
     }
 
-    private OrderLineItem saveOrderLineItem(OrderLineItem lineItem) throws Exception {
-        KeyHolder keyHolder = new GeneratedKeyHolder();
-        final String sql = "INSERT INTO order_line_item (order_fulfillment_id, product_id, quantity, unit_purchase_price) " +
-                "VALUES (?, ?, ?, ?)";
-        jdbc.update(connection -> {
-            PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            ps.setInt(1, lineItem.getOrderId());
-            ps.setInt(2, lineItem.getProduct().getId());
-            ps.setInt(3, lineItem.getQuantity());
-            ps.setBigDecimal(4, lineItem.getUnitPurchasePrice());
-            return ps;
-        }, keyHolder);
-        if (!keyHolder.getKeys().isEmpty()) {
-            lineItem.setId((Integer) keyHolder.getKeys().get("order_line_item_id"));
-        } else {
-            lineItem.setId(keyHolder.getKey().intValue());
+    // One JDBC batch for all of the line items. The ids are drawn from the table's
+    // sequence up front rather than read back with getGeneratedKeys: with
+    // reWriteBatchedInserts the driver turns the batch into multi-row INSERTs and
+    // the generated keys aren't guaranteed to come back in the order we added rows.
+    private void insertOrderLineItems(List<OrderLineItem> lineItems) throws Exception {
+        if (lineItems.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = jdbc.queryForList(NEXT_ORDER_LINE_ITEM_IDS_SQL, Integer.class, lineItems.size());
+        for (int i = 0; i < lineItems.size(); i++) {
+            lineItems.get(i).setId(ids.get(i));
         }
-        return lineItem;
+        jdbc.batchUpdate(INSERT_ORDER_LINE_ITEM_SQL, lineItems, lineItems.size(), (ps, lineItem) -> {
+            ps.setInt(1, lineItem.getId());
+            ps.setInt(2, lineItem.getOrderId());
+            ps.setInt(3, lineItem.getProduct().getId());
+            ps.setInt(4, lineItem.getQuantity());
+            ps.setBigDecimal(5, lineItem.getUnitPurchasePrice());
+        });
     }
 
     private void deleteOrderLineItems(Integer orderId) throws Exception {
@@ -260,33 +481,23 @@ public class OrderDaoImpl implements OrderDao {
                     result.getString("bill_to_state"),
                     result.getString("bill_to_postal_code")
             ));
-            try {
-                order.setLineItems(getOrderLineItems(order.getId()));
-            } catch (Exception e) {
-                throw new SQLException(e);
-            }
             return order;
         }
     }
 
-    private final Map<Integer, Product> orderLineItemProductCache = new HashMap<>();
+    static class LineItemChanges {
+        final List<OrderLineItem> inserts = new ArrayList<>();
+        final List<OrderLineItem> updates = new ArrayList<>();
+        final List<Integer> deletes = new ArrayList<>();
+    }
+
+    // The product is only a reference by id here, loadOrderLineItems resolves
+    // the full product for every line item in one pass
     class OrderLineItemRowMapper implements RowMapper<OrderLineItem> {
         @Override
         public OrderLineItem mapRow(ResultSet result, int rowNumber) throws SQLException {
-            Integer productId = result.getInt("product_id");
-            Product product = null;
-            if (productId != null) {
-                if (!orderLineItemProductCache.containsKey(productId)) {
-                    try {
-                        product = productDao.getProduct(productId);
-                        orderLineItemProductCache.put(productId, product);
-                    } catch (Exception e) {
-                        throw new SQLException(e);
-                    }
-                } else {
-                    product = orderLineItemProductCache.get(productId);
-                }
-            }
+            Product product = new Product();
+            product.setId(result.getInt("product_id"));
             OrderLineItem lineItem = new OrderLineItem(
                     result.getInt("order_line_item_id"),
                     result.getInt("order_fulfillment_id"),
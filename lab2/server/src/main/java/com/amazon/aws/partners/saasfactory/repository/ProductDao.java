@@ -19,6 +19,8 @@ package com.amazon.aws.partners.saasfactory.repository;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface ProductDao {
 
@@ -26,6 +28,14 @@ public interface ProductDao {
 
     public List<Product> getProducts() throws Exception;
 
+    public int getProductCount() throws Exception;
+
+    public String getProductsVersion() throws Exception;
+
+    public List<Product> getProductsByIds(Set<Integer> productIds) throws Exception;
+
+    public void streamProducts(Consumer<Product> consumer) throws Exception;
+
     public Product saveProduct(Product product) throws Exception;
 
     public Product deleteProduct(Product product) throws Exception;
@@ -16,12 +16,15 @@
  */
 package com.amazon.aws.partners.saasfactory.repository;
 
+import com.amazon.aws.partners.saasfactory.configuration.CacheConfiguration;
 import com.amazon.aws.partners.saasfactory.domain.Category;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
@@ -33,6 +36,8 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Repository
 public class ProductDaoImpl implements ProductDao {
@@ -48,6 +53,11 @@ public class ProductDaoImpl implements ProductDao {
     private final static String INSERT_PRODUCT_SQL = "INSERT INTO product (sku, product, price) VALUES (?, ?, ?)";
     private final static String UPDATE_PRODUCT_SQL = "UPDATE product SET sku = ?, product = ?, price = ? WHERE product_id = ?";
     private final static String DELETE_PRODUCT_SQL = "DELETE FROM product WHERE product_id = ?";
+    final static int STREAM_FETCH_SIZE = 500;
+
+    // Bumped by triggers on product, product_categories and category (see bootstrap.sql),
+    // so checking for changes never reads the product rows themselves
+    private final static String SELECT_PRODUCTS_VERSION_SQL = "SELECT SUM(version)::text FROM data_version WHERE name = 'products'";
 
     @Autowired
     private JdbcTemplate jdbc;
@@ -73,7 +83,43 @@ public class ProductDaoImpl implements ProductDao {
         return products;
     }
 
+    // Must run inside a transaction: the PostgreSQL driver only honours the
+    // fetch size, and so only avoids buffering the whole result, with autocommit off
+    @Override
+    public void streamProducts(Consumer<Product> consumer) throws Exception {
+        logger.info("ProductDao::streamProducts");
+        ProductRowMapper rowMapper = new ProductRowMapper();
+        jdbc.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_PRODUCT_SQL);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, (RowCallbackHandler) result -> consumer.accept(rowMapper.mapRow(result, 0)));
+    }
+
+    @Override
+    public String getProductsVersion() throws Exception {
+        return jdbc.queryForObject(SELECT_PRODUCTS_VERSION_SQL, String.class);
+    }
+
+    @Override
+    public int getProductCount() throws Exception {
+        logger.info("ProductDao::getProductCount");
+        return jdbc.queryForObject("SELECT COUNT(*) FROM product", Integer.class);
+    }
+
+    @Override
+    public List<Product> getProductsByIds(Set<Integer> productIds) throws Exception {
+        logger.info("ProductDao::getProductsByIds " + productIds.size());
+        if (productIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String sql = SELECT_PRODUCT_SQL.concat(" WHERE p.product_id = ANY(?)");
+        Integer[] ids = productIds.toArray(new Integer[0]);
+        return jdbc.query(sql, ps -> ps.setArray(1, ps.getConnection().createArrayOf("integer", ids)), new ProductRowMapper());
+    }
+
     @Override
+    @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_CACHE, key = "#product.id")
     public Product saveProduct(Product product) throws Exception {
         logger.info("ProductDao::saveProduct " + product);
         if (product.getId() != null && product.getId() > 0) {
@@ -125,6 +171,7 @@ public class ProductDaoImpl implements ProductDao {
     }
 
     @Override
+    @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_CACHE, key = "#product.id")
     public Product deleteProduct(Product product) throws Exception {
         logger.info("ProductDao::deleteProduct " + product);
         int affectedRows = jdbc.update(DELETE_PRODUCT_SQL, new Object[]{product.getId()});
@@ -19,11 +19,18 @@ package com.amazon.aws.partners.saasfactory.service;
 import com.amazon.aws.partners.saasfactory.domain.Order;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface OrderService {
 
     public List<Order> getOrders() throws Exception;
 
+    public void streamOrders(Consumer<Order> consumer) throws Exception;
+
+    public int getOrderCount() throws Exception;
+
+    public String getOrdersVersion() throws Exception;
+
     public Order getOrder(Integer orderId) throws Exception;
 
     public Order saveOrder(Order order) throws Exception;
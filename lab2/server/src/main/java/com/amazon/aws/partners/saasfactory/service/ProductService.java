@@ -20,11 +20,18 @@ import com.amazon.aws.partners.saasfactory.domain.Category;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface ProductService {
 
     public List<Product> getProducts() throws Exception;
 
+    public void streamProducts(Consumer<Product> consumer) throws Exception;
+
+    public int getProductCount() throws Exception;
+
+    public String getProductsVersion() throws Exception;
+
     public Product getProduct(Integer productId) throws Exception;
 
     public Product saveProduct(Product product) throws Exception;
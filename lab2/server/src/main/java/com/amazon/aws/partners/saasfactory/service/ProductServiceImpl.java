@@ -16,6 +16,7 @@
  */
 package com.amazon.aws.partners.saasfactory.service;
 
+import com.amazon.aws.partners.saasfactory.configuration.CacheConfiguration;
 import com.amazon.aws.partners.saasfactory.domain.Category;
 import com.amazon.aws.partners.saasfactory.domain.Product;
 import com.amazon.aws.partners.saasfactory.repository.CategoryDao;
@@ -23,10 +24,14 @@ import com.amazon.aws.partners.saasfactory.repository.ProductDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StopWatch;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 public class ProductServiceImpl implements ProductService {
@@ -39,6 +44,7 @@ public class ProductServiceImpl implements ProductService {
     private CategoryDao categoryDao;
 
     @Override
+    @Transactional(readOnly = true)
     public List<Product> getProducts() throws Exception {
         logger.info("ProductService::getProducts");
         StopWatch timer = new StopWatch();
@@ -50,6 +56,37 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(readOnly = true)
+    public void streamProducts(Consumer<Product> consumer) throws Exception {
+        logger.info("ProductService::streamProducts");
+        StopWatch timer = new StopWatch();
+        timer.start();
+        productDao.streamProducts(consumer);
+        timer.stop();
+        logger.info("ProductService::streamProducts exec " + timer.getTotalTimeMillis());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public String getProductsVersion() throws Exception {
+        return productDao.getProductsVersion();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'productCount'")
+    public int getProductCount() throws Exception {
+        logger.info("ProductService::getProductCount");
+        StopWatch timer = new StopWatch();
+        timer.start();
+        int count = productDao.getProductCount();
+        timer.stop();
+        logger.info("ProductService::getProductCount exec " + timer.getTotalTimeMillis());
+        return count;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
     public Product getProduct(Integer productId) throws Exception {
         logger.info("ProductService::getProduct " + productId);
         StopWatch timer = new StopWatch();
@@ -61,6 +98,8 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'productCount'")
     public Product saveProduct(Product product) throws Exception {
         Integer productId = product != null ? product.getId() : null;
         logger.info("ProductService::saveProduct " + productId);
@@ -73,6 +112,8 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
+    @CacheEvict(cacheNames = CacheConfiguration.DASHBOARD_CACHE, key = "'productCount'")
     public Product deleteProduct(Product product) throws Exception {
         Integer productId = product != null ? product.getId() : null;
         logger.info("ProductService::deleteProduct " + productId);
@@ -85,6 +126,7 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public List<Category> getCategories() throws Exception {
         logger.info("ProductService::getCategories");
         StopWatch timer = new StopWatch();
@@ -96,6 +138,7 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Category getCategory(Integer categoryId) throws Exception {
         logger.info("ProductService::getCategory");
         StopWatch timer = new StopWatch();
@@ -107,6 +150,7 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Category getCategoryByName(String name) throws Exception {
         logger.info("ProductService::getCategoryByName");
         StopWatch timer = new StopWatch();
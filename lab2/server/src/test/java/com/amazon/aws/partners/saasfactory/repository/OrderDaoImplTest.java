@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory.repository;
+
+import com.amazon.aws.partners.saasfactory.domain.OrderLineItem;
+import com.amazon.aws.partners.saasfactory.domain.Product;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OrderDaoImplTest {
+
+    private static OrderLineItem lineItem(Integer id, int productId, int quantity, String price) {
+        Product product = new Product();
+        product.setId(productId);
+        return new OrderLineItem(id, id != null ? 1 : null, product, quantity, price != null ? new BigDecimal(price) : null);
+    }
+
+    @Test
+    public void testUnchangedLineItemsAreLeftAlone() {
+        List<OrderLineItem> existing = Arrays.asList(lineItem(10, 1, 2, "9.99"), lineItem(11, 2, 1, "5.00"));
+        List<OrderLineItem> requested = Arrays.asList(lineItem(10, 1, 2, "9.990"), lineItem(11, 2, 1, "5"));
+        OrderDaoImpl.LineItemChanges changes = OrderDaoImpl.diffLineItems(1, existing, requested);
+        assertTrue(changes.inserts.isEmpty());
+        assertTrue(changes.updates.isEmpty());
+        assertTrue(changes.deletes.isEmpty());
+    }
+
+    @Test
+    public void testItemsWithoutIdsMatchByProduct() {
+        List<OrderLineItem> existing = Arrays.asList(lineItem(10, 1, 2, "9.99"), lineItem(11, 2, 1, "5.00"));
+        // The web client posts no ids, only product 2's quantity changed
+        List<OrderLineItem> requested = Arrays.asList(lineItem(null, 1, 2, "9.99"), lineItem(null, 2, 3, "5.00"));
+        OrderDaoImpl.LineItemChanges changes = OrderDaoImpl.diffLineItems(1, existing, requested);
+        assertTrue(changes.inserts.isEmpty());
+        assertEquals(1, changes.updates.size());
+        assertEquals(Integer.valueOf(11), changes.updates.get(0).getId());
+        assertEquals(Integer.valueOf(10), requested.get(0).getId());
+        assertTrue(changes.deletes.isEmpty());
+    }
+
+    @Test
+    public void testInsertsAndDeletes() {
+        List<OrderLineItem> existing = Arrays.asList(lineItem(10, 1, 2, "9.99"), lineItem(11, 2, 1, "5.00"));
+        List<OrderLineItem> requested = Arrays.asList(lineItem(null, 1, 2, "9.99"), lineItem(null, 3, 1, "7.50"));
+        OrderDaoImpl.LineItemChanges changes = OrderDaoImpl.diffLineItems(1, existing, requested);
+        assertEquals(1, changes.inserts.size());
+        assertEquals(Integer.valueOf(3), changes.inserts.get(0).getProduct().getId());
+        assertEquals(Integer.valueOf(1), changes.inserts.get(0).getOrderId());
+        assertTrue(changes.updates.isEmpty());
+        assertEquals(Collections.singletonList(11), changes.deletes);
+    }
+
+    @Test
+    public void testDuplicateProductsMatchOneRowEach() {
+        List<OrderLineItem> existing = Arrays.asList(lineItem(10, 1, 1, "9.99"), lineItem(11, 1, 4, "9.99"));
+        List<OrderLineItem> requested = Arrays.asList(lineItem(null, 1, 1, "9.99"), lineItem(null, 1, 4, "9.99"), lineItem(null, 1, 2, "9.99"));
+        OrderDaoImpl.LineItemChanges changes = OrderDaoImpl.diffLineItems(1, existing, requested);
+        assertEquals(1, changes.inserts.size());
+        assertTrue(changes.deletes.isEmpty());
+        assertNotEquals(requested.get(0).getId(), requested.get(1).getId());
+    }
+
+    @Test
+    public void testMissingPriceIsFilledFromProduct() {
+        Product product = new Product();
+        product.setId(1);
+        product.setPrice(new BigDecimal("9.99"));
+        List<OrderLineItem> requested = Arrays.asList(lineItem(null, 1, 2, null), lineItem(null, 2, 1, "5.00"));
+        OrderDaoImpl.fillMissingPrices(requested, Collections.singletonMap(1, product));
+        assertEquals(new BigDecimal("9.99"), requested.get(0).getUnitPurchasePrice());
+        assertEquals(new BigDecimal("5.00"), requested.get(1).getUnitPurchasePrice());
+
+        // Filled in at the price already stored, so the row is left alone
+        List<OrderLineItem> existing = Arrays.asList(lineItem(10, 1, 2, "9.99"), lineItem(11, 2, 1, "5.00"));
+        OrderDaoImpl.LineItemChanges changes = OrderDaoImpl.diffLineItems(1, existing, requested);
+        assertTrue(changes.updates.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingPriceForUnknownProductIsRejected() {
+        List<OrderLineItem> requested = Collections.singletonList(lineItem(null, 1, 2, null));
+        OrderDaoImpl.fillMissingPrices(requested, Collections.emptyMap());
+    }
+}
@@ -46,6 +46,6 @@ public class LoggingManager {
     }
 
     private static String decorateMessage(Map<String, Object> event, String message) {
-        return "Tenant ID [" + new TokenManager().getTenantId(event) + "] " + message;
+        return "Tenant ID [" + TokenManager.getInstance().getTenantId(event) + "] " + message;
     }
 }
\ No newline at end of file
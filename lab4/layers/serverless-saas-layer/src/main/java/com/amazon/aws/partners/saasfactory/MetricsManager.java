@@ -31,7 +31,7 @@ public class MetricsManager {
     private final static ObjectMapper MAPPER = new ObjectMapper();
 
     public static void recordMetric(Map<String, Object> event, String source, String action, Long duration) {
-        String tenantId = new TokenManager().getTenantId(event);
+        String tenantId = TokenManager.getInstance().getTenantId(event);
 
         Map<String, Object> metric = new HashMap<>();
         metric.put("tenantId", tenantId);
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.services.ssm.SsmClient;
+import software.amazon.awssdk.services.ssm.model.GetParametersByPathResponse;
+import software.amazon.awssdk.services.ssm.model.Parameter;
+import software.amazon.awssdk.services.ssm.model.SsmException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration settings kept in parameter store under one path per owner:
+ * <pre>
+ * /saas-factory-srvls-wrkshp/pool/DB_HOST             settings shared by the pooled tenants
+ * /saas-factory-srvls-wrkshp/tenant/{tenantId}/DB_HOST settings for one siloed tenant
+ * </pre>
+ * All of an owner's settings, SecureStrings decrypted, come back from a single
+ * GetParametersByPath call keyed by their leaf name (DB_HOST, DB_PASS...). Results are
+ * held for TENANT_CONFIG_TTL_SECONDS (default 300) so a warm function doesn't keep going
+ * back to parameter store.
+ */
+public class TenantConfigManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TenantConfigManager.class);
+    public static final String CONFIG_ROOT = "/saas-factory-srvls-wrkshp";
+    public static final String POOLED_CONFIG_PATH = CONFIG_ROOT + "/pool";
+    private static final int CONFIG_CACHE_SIZE = 100;
+    private static final NearCache<String, Map<String, String>> CONFIG = new NearCache<>(
+            TimeUnit.SECONDS.toMillis(Long.parseLong(System.getenv().getOrDefault("TENANT_CONFIG_TTL_SECONDS", "300"))),
+            CONFIG_CACHE_SIZE
+    );
+    private static final SsmClient SSM = SsmClient.builder()
+            .httpClientBuilder(UrlConnectionHttpClient.builder())
+            .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+            .region(StartupManager.REGION)
+            .applyMutation(StartupManager::endpoint)
+            .build();
+
+    public static String tenantConfigPath(String tenantId) {
+        return CONFIG_ROOT + "/tenant/" + tenantId;
+    }
+
+    public static Map<String, String> getPooledConfig() {
+        return getConfig(POOLED_CONFIG_PATH);
+    }
+
+    public static Map<String, String> getTenantConfig(String tenantId) {
+        return getConfig(tenantConfigPath(tenantId));
+    }
+
+    /**
+     * @param path
+     * @return the settings under path keyed by their leaf name, empty if there are none
+     */
+    public static Map<String, String> getConfig(String path) {
+        return CONFIG.get(path, TenantConfigManager::loadConfig);
+    }
+
+    public static void invalidate(String path) {
+        CONFIG.invalidate(path);
+    }
+
+    private static Map<String, String> loadConfig(String path) {
+        long startTimeMillis = System.currentTimeMillis();
+        Map<String, String> config = new HashMap<>();
+        try {
+            String nextToken = null;
+            do {
+                final String pageToken = nextToken;
+                GetParametersByPathResponse response = SSM.getParametersByPath(request -> request
+                        .path(path)
+                        .withDecryption(Boolean.TRUE)
+                        .nextToken(pageToken)
+                );
+                for (Parameter parameter : response.parameters()) {
+                    config.put(parameter.name().substring(parameter.name().lastIndexOf('/') + 1), parameter.value());
+                }
+                nextToken = response.nextToken();
+            } while (nextToken != null);
+        } catch (SsmException e) {
+            LOGGER.error("TenantConfigManager::loadConfig " + TokenManager.getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("TenantConfigManager::loadConfig " + path + " exec " + totalTimeMillis);
+        return Collections.unmodifiableMap(config);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-through access to the tenant record (plan, userPool, database...) for tenant-aware
+ * services. Records are held in a near cache for TENANT_CACHE_TTL_SECONDS (default 10) so a
+ * warm function only goes back to DynamoDB once per tenant per TTL. Tenants that don't exist
+ * aren't cached.
+ * <p>
+ * The cache lives in each function's own memory, so the tenant service's writes can't
+ * invalidate it. After a tenant is updated or deleted, other functions can keep serving the
+ * old record for up to the TTL. Call {@link #invalidate(String)} when a function learns of a
+ * change itself, and keep the TTL short for anything that must see changes promptly.
+ */
+public class TenantMetadataManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TenantMetadataManager.class);
+    private static final String TENANT_TABLE = "saas-factory-srvls-wrkshp-tenants";
+    private static final int TENANT_CACHE_SIZE = 1000;
+    private static final NearCache<String, Map<String, String>> TENANTS = new NearCache<>(
+            TimeUnit.SECONDS.toMillis(Long.parseLong(System.getenv().getOrDefault("TENANT_CACHE_TTL_SECONDS", "10"))),
+            TENANT_CACHE_SIZE
+    );
+    private static final DynamoDbClient DDB = DynamoDbClient.builder()
+            .httpClientBuilder(UrlConnectionHttpClient.builder())
+            .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+            .region(StartupManager.REGION)
+            .applyMutation(StartupManager::endpoint)
+            .build();
+
+    public static Map<String, String> getTenant(Map<String, Object> event) {
+        return getTenant(TokenManager.getInstance().getTenantId(event));
+    }
+
+    /**
+     * @param tenantId
+     * @return the tenant's attributes or null if there is no such tenant
+     */
+    public static Map<String, String> getTenant(String tenantId) {
+        return TENANTS.get(tenantId, TenantMetadataManager::loadTenant);
+    }
+
+    public static void invalidate(String tenantId) {
+        TENANTS.invalidate(tenantId);
+    }
+
+    private static Map<String, String> loadTenant(String tenantId) {
+        long startTimeMillis = System.currentTimeMillis();
+        Map<String, String> tenant = null;
+        try {
+            GetItemResponse response = DDB.getItem(request -> request
+                    .tableName(TENANT_TABLE)
+                    .key(Collections.singletonMap("id", AttributeValue.builder().s(tenantId).build()))
+            );
+            if (response.item() != null && !response.item().isEmpty()) {
+                Map<String, String> attributes = new HashMap<>();
+                response.item().forEach((name, value) ->
+                        attributes.put(name, value.bool() != null ? value.bool().toString() : value.s())
+                );
+                tenant = Collections.unmodifiableMap(attributes);
+            }
+        } catch (DynamoDbException e) {
+            LOGGER.error("TenantMetadataManager::loadTenant " + TokenManager.getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("TenantMetadataManager::loadTenant exec " + totalTimeMillis);
+        return tenant;
+    }
+}
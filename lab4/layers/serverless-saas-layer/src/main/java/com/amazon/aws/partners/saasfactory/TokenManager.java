@@ -23,8 +23,7 @@ import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
-import software.amazon.awssdk.services.cognitoidentityprovider.model.ListUserPoolsResponse;
-import software.amazon.awssdk.services.cognitoidentityprovider.model.UserPoolDescriptionType;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.ResourceNotFoundException;
 import software.amazon.awssdk.utils.IoUtils;
 
 import java.io.IOException;
@@ -38,6 +37,9 @@ import java.security.KeyFactory;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class TokenManager {
@@ -45,15 +47,25 @@ public class TokenManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(TokenManager.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private static final String TENANT_CLAIM = "custom:tenant_id";
-    private final Map<String, List<Map<String, String>>> userPoolsJwks = new HashMap<>();
+    private static final String AWS_REGION = System.getenv("AWS_REGION");
+    // Cognito user pool issuers, https://cognito-idp.<region>.amazonaws.com/<region>_<id>
+    private static final Pattern COGNITO_ISSUER = Pattern.compile("^https://cognito-idp\\.([a-z0-9-]+)\\.amazonaws\\.com/(\\1_[A-Za-z0-9]+)$");
+    // One per container, built during init, so each user pool's JWKS is only fetched once
+    private static final TokenManager INSTANCE = new TokenManager();
+    private final Map<String, List<Map<String, String>>> userPoolsJwks = new ConcurrentHashMap<>();
     private CognitoIdentityProviderClient cognito;
 
     public TokenManager() {
         this.cognito = CognitoIdentityProviderClient.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
-        init();
+    }
+
+    public static TokenManager getInstance() {
+        return INSTANCE;
     }
 
     public String getTenantId(Map<String, Object> event) {
@@ -73,27 +85,50 @@ public class TokenManager {
         return tenantId;
     }
 
+    /**
+     * Resolves the signing key from the JWKS of the user pool that issued the token. A pool
+     * this container hasn't seen yet, like the pool of a tenant that registered after it
+     * started, has its JWKS fetched the first time one of its tokens shows up.
+     * @return
+     */
     public SigningKeyResolver keyResolver() {
-        LOGGER.info("TokenManager::keyResolver building key resolver for " + userPoolsJwks.keySet().size() + " user pools");
-        List<List<Map<String, String>>> cognitoKeys = new ArrayList<>();
-        userPoolsJwks.entrySet()
-                .stream()
-                .map(e -> e.getValue())
-                .forEachOrdered(cognitoKeys::add);
-        return CognitoSigningKeyResolver.builder().jwks(cognitoKeys).build();
+        return new SigningKeyResolverAdapter() {
+            @Override
+            public Key resolveSigningKey(JwsHeader jwsHeader, Claims claims) {
+                List<Map<String, String>> jwks = userPoolJwks(claims.getIssuer());
+                if (jwks == null) {
+                    return null;
+                }
+                return CognitoSigningKeyResolver.builder().jwksSingle(jwks).build().resolveSigningKey(jwsHeader, claims);
+            }
+        };
     }
 
-    public final void init() {
-        ListUserPoolsResponse userPoolsResponse = cognito.listUserPools(request -> request.maxResults(60));
-        List<UserPoolDescriptionType> userPools = userPoolsResponse.userPools();
-        if (userPools != null) {
-            for (UserPoolDescriptionType userPool : userPools) {
-                String userPoolId = userPool.id();
-                if (!userPoolsJwks.containsKey(userPoolId)) {
-                    addUserPoolJwks(userPoolId);
-                }
+    /**
+     * The issuer hasn't been verified yet when the key is being resolved, so only Cognito
+     * user pools in this region are accepted, and a pool is checked to be in this account
+     * before its keys are trusted. Anyone can create a user pool and sign tokens with it.
+     * @param issuer
+     * @return the issuing pool's JWKS or null if the issuer isn't one of our user pools
+     */
+    private List<Map<String, String>> userPoolJwks(String issuer) {
+        Matcher matcher = issuer != null ? COGNITO_ISSUER.matcher(issuer) : null;
+        if (matcher == null || !matcher.matches() || !matcher.group(1).equals(AWS_REGION)) {
+            LOGGER.error("TokenManager::userPoolJwks rejecting issuer " + issuer);
+            return null;
+        }
+        String userPoolId = matcher.group(2);
+        if (!userPoolsJwks.containsKey(userPoolId)) {
+            LOGGER.info("TokenManager::userPoolJwks fetching signing keys for " + userPoolId);
+            try {
+                cognito.describeUserPool(request -> request.userPoolId(userPoolId));
+            } catch (ResourceNotFoundException e) {
+                LOGGER.error("TokenManager::userPoolJwks rejecting issuer " + issuer + " not in this account");
+                return null;
             }
+            addUserPoolJwks(userPoolId);
         }
+        return userPoolsJwks.get(userPoolId);
     }
 
     public final void addUserPoolJwks(String userPoolId) {
@@ -30,6 +30,7 @@ import java.util.*;
 public class OrderServiceDAL {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(OrderServiceDAL.class);
+    private final static String ORDERS_TABLE_PREFIX = "order_fulfillment_";
     private final Map<String, String> tenantTableCache = new HashMap<>();
     private DynamoDbClient ddb;
 
@@ -37,9 +38,35 @@ public class OrderServiceDAL {
         this.ddb = DynamoDbClient.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
     }
 
+    /**
+     * Run once during init. Caches every tenant orders table that already exists, so a
+     * tenant's first request in this container doesn't have to look its table up. Tables
+     * created after that are looked up one at a time as their tenants show up.
+     */
+    public void prime() {
+        try {
+            String lastTableName = null;
+            do {
+                final String startTableName = lastTableName;
+                ListTablesResponse response = ddb.listTables(request -> request.exclusiveStartTableName(startTableName));
+                for (String table : response.tableNames()) {
+                    if (table.startsWith(ORDERS_TABLE_PREFIX)) {
+                        tenantTableCache.put(table.substring(ORDERS_TABLE_PREFIX.length()), table);
+                    }
+                }
+                lastTableName = response.lastEvaluatedTableName();
+            } while (lastTableName != null);
+        } catch (DynamoDbException e) {
+            LOGGER.error("OrderServiceDAL::prime " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+    }
+
     public List<Order> getOrders(Map<String, Object> event) {
         LOGGER.info("OrderServiceDAL::getOrders");
         List<Order> orders = new ArrayList<>();
@@ -124,19 +151,18 @@ public class OrderServiceDAL {
     }
 
     private String tableName(Map<String, Object> event) {
-        String tenantId = new TokenManager().getTenantId(event);
+        String tenantId = TokenManager.getInstance().getTenantId(event);
         LOGGER.info("OrderServiceDAL::tableName determining orders table for " + tenantId);
-        String tableName = "order_fulfillment_" + tenantId;
+        String tableName = ORDERS_TABLE_PREFIX + tenantId;
         if (!tenantTableCache.containsKey(tenantId) || !tenantTableCache.get(tenantId).equals(tableName)) {
             LOGGER.debug("OrderServiceDAL::tableName not cached " + tableName);
             boolean exits = false;
-            LOGGER.debug("OrderServiceDAL::tableName searching DynamoDB tables");
-            ListTablesResponse response = ddb.listTables();
-            for (String table : response.tableNames()) {
-                if (table.equals(tableName)) {
-                    exits = true;
-                    break;
-                }
+            LOGGER.debug("OrderServiceDAL::tableName describing DynamoDB table");
+            try {
+                ddb.describeTable(request -> request.tableName(tableName));
+                exits = true;
+            } catch (ResourceNotFoundException e) {
+                LOGGER.debug("OrderServiceDAL::tableName no DynamoDB table " + tableName);
             }
             if (!exits) {
                 LOGGER.info("OrderServiceDAL::tableName creating DynamoDB table " + tableName);
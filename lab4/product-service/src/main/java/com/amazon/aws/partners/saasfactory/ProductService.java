@@ -42,11 +42,30 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
             .of(new AbstractMap.SimpleEntry<String, String>("Access-Control-Allow-Origin", "*"))
             .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
 
+    static {
+        StartupManager.init("ProductService", ProductService::prime, TokenManager::getInstance);
+    }
+
     public APIGatewayProxyResponseEvent handleRequest(Map<String, Object> event, Context context) {
         return getProducts(event, context);
     }
 
+    /**
+     * Every handler checks for a warmup ping first. Each ping re-primes the database
+     * connection, the pooled database settings and the Jackson mappings so they are
+     * still warm when the next real request arrives.
+     * @param event
+     * @return true if the event was a warmup ping
+     */
+    private static boolean warmup(Map<String, Object> event) {
+        return WarmupManager.warmup(event, ProductService::prime, DAL::prime,
+                TenantConfigManager::getPooledConfig);
+    }
+
     public APIGatewayProxyResponseEvent getProducts(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::getProducts");
         List<Product> products = DAL.getProducts(event);
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
@@ -57,6 +76,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent getProduct(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::getProduct");
         Map<String, String> params = (Map) event.get("pathParameters");
         Integer productId = Integer.valueOf(params.get("id"));
@@ -71,6 +93,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent updateProduct(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::updateProduct");
         Map<String, String> params = (Map) event.get("pathParameters");
         Integer productId = Integer.valueOf(params.get("id"));
@@ -95,6 +120,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent insertProduct(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::insertProduct");
         APIGatewayProxyResponseEvent response = null;
         Product product = productFromJson((String) event.get("body"));
@@ -112,6 +140,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent deleteProduct(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::deleteProduct");
         Map<String, String> params = (Map) event.get("pathParameters");
         Integer productId = Integer.valueOf(params.get("id"));
@@ -136,6 +167,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent getCategories(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::getCategories");
         List<Category> categories = DAL.getCategories(event);
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
@@ -146,6 +180,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent getCategory(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::getCategory");
         Map<String, String> params = (Map) event.get("pathParameters");
         Integer categoryId = Integer.valueOf(params.get("id"));
@@ -160,6 +197,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent updateCategory(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::updateCategory");
         Map<String, String> params = (Map) event.get("pathParameters");
         Integer categoryId = Integer.valueOf(params.get("id"));
@@ -184,6 +224,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent insertCategory(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::insertCategory");
         APIGatewayProxyResponseEvent response = null;
         Category category = categoryFromJson((String) event.get("body"));
@@ -201,6 +244,9 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
     }
 
     public APIGatewayProxyResponseEvent deleteCategory(Map<String, Object> event, Context context) {
+        if (warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
         LoggingManager.log(event, "ProductService::deleteCategory");
         Map<String, String> params = (Map) event.get("pathParameters");
         Integer categoryId = Integer.valueOf(params.get("id"));
@@ -224,6 +270,15 @@ public class ProductService implements RequestHandler<Map<String, Object>, APIGa
         return response;
     }
 
+    /**
+     * Run during init so Jackson has introspected the product and category types
+     * before the first real request needs them
+     */
+    private static void prime() {
+        productFromJson(toJson(new Product()));
+        categoryFromJson(toJson(new Category()));
+    }
+
     public static String toJson(Object obj) {
         String json = null;
         try {
@@ -18,12 +18,6 @@ package com.amazon.aws.partners.saasfactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
-import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
-import software.amazon.awssdk.services.ssm.SsmClient;
-import software.amazon.awssdk.services.ssm.model.GetParameterResponse;
-import software.amazon.awssdk.services.ssm.model.GetParametersResponse;
-import software.amazon.awssdk.services.ssm.model.Parameter;
 
 import java.sql.*;
 import java.util.*;
@@ -31,13 +25,12 @@ import java.util.*;
 public class ProductServiceDAL {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(ProductServiceDAL.class);
+    private final static int CONNECTION_CHECK_SECONDS = 2;
 
-    private SsmClient ssm;
     private String dbHost;
     private String dbDatabase;
     private String dbUsername;
     private String dbPassword;
-    private String dbPasswordParam;
     private Connection connection;
 
     private final static String SELECT_PRODUCT_SQL = "SELECT p.product_id, p.sku, p.product, p.price, c.category_id, c.category " +
@@ -48,52 +41,35 @@ public class ProductServiceDAL {
             "ON p.product_id = pc.product_id " +
             "LEFT OUTER JOIN category AS c ON pc.category_id = c.category_id " +
             "WHERE p.tenant_id = ?";
-    private final static String INSERT_PRODUCT_SQL = "INSERT INTO product (tenant_id, sku, product, price) VALUES (?, ?, ?, ?)";
-    private final static String UPDATE_PRODUCT_SQL = "UPDATE product SET sku = ?, product = ?, price = ? WHERE tenant_id = ? AND product_id = ?";
+    private final static String INSERT_PRODUCT_SQL = "INSERT INTO product (tenant_id, sku, product, price) VALUES (?, ?, ?, ?) RETURNING product_id";
+    private final static String INSERT_PRODUCT_CATEGORY_SQL = "WITH p AS (" +
+            "INSERT INTO product (tenant_id, sku, product, price) VALUES (?, ?, ?, ?) RETURNING product_id), " +
+            "pc AS (INSERT INTO product_categories (product_id, category_id) SELECT product_id, ? FROM p ON CONFLICT DO NOTHING) " +
+            "SELECT product_id FROM p";
+    private final static String UPDATE_PRODUCT_SQL = "WITH p AS (" +
+            "UPDATE product SET sku = ?, product = ?, price = ? WHERE tenant_id = ? AND product_id = ? RETURNING product_id) " +
+            "SELECT COUNT(*) FROM p";
+    private final static String UPDATE_PRODUCT_CATEGORY_SQL = "WITH p AS (" +
+            "UPDATE product SET sku = ?, product = ?, price = ? WHERE tenant_id = ? AND product_id = ? RETURNING product_id), " +
+            "pc AS (INSERT INTO product_categories (product_id, category_id) SELECT product_id, ? FROM p ON CONFLICT DO NOTHING) " +
+            "SELECT COUNT(*) FROM p";
     private final static String DELETE_PRODUCT_SQL = "DELETE FROM product WHERE tenant_id = ? AND product_id = ?";
 
     private final static String SELECT_CATEGORY_SQL = "SELECT category_id, category FROM category WHERE tenant_id = ?";
     private final static String INSERT_CATEGORY_SQL = "INSERT INTO category (tenant_id, category) VALUES (?, ?)";
+    private final static String UPSERT_CATEGORY_SQL = "INSERT INTO category (tenant_id, category) VALUES (?, ?) " +
+            "ON CONFLICT (tenant_id, category) DO UPDATE SET category = EXCLUDED.category RETURNING category_id";
     private final static String UPDATE_CATEGORY_SQL = "UPDATE category SET category = ? WHERE tenant_id = ? AND category_id = ?";
     private final static String DELETE_CATEGORY_SQL = "DELETE FROM category WHERE tenant_id = ? AND category_id = ?";
 
     public ProductServiceDAL() {
-        this.ssm = SsmClient.builder()
-                .httpClientBuilder(UrlConnectionHttpClient.builder())
-                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
-                .build();
-
+        // One GetParametersByPath for the whole pooled database config, password decrypted
         LOGGER.info("ProductServiceDAL fetching parameters from SSM");
-        GetParametersResponse response = ssm.getParameters(request -> request
-                .names("DB_HOST_POOL", "DB_NAME", "DB_USER", "DB_PASS")
-                .build()
-        );
-        for (Parameter parameter : response.parameters()) {
-            LOGGER.info("Processing parameter " + parameter.name());
-            switch (parameter.name()) {
-                case "DB_HOST_POOL":
-                    this.dbHost = parameter.value();
-                    break;
-                case "DB_NAME":
-                    this.dbDatabase = parameter.value();
-                    break;
-                case "DB_USER":
-                    this.dbUsername = parameter.value();
-                    break;
-                case "DB_PASS":
-                    this.dbPasswordParam = parameter.value();
-                    break;
-            }
-        }
-
-        // Now go fetch the encrypted database password
-        LOGGER.info("ProductServiceDAL fetching password secret from SSM");
-        GetParameterResponse passwordResponse = ssm.getParameter(request -> request
-            .withDecryption(Boolean.TRUE)
-            .name(this.dbPasswordParam)
-            .build()
-        );
-        this.dbPassword = passwordResponse.parameter().value();
+        Map<String, String> config = TenantConfigManager.getPooledConfig();
+        this.dbHost = config.get("DB_HOST");
+        this.dbDatabase = config.get("DB_NAME");
+        this.dbUsername = config.get("DB_USER");
+        this.dbPassword = config.get("DB_PASS");
 
         Properties connectionProperties = new Properties();
         connectionProperties.put("user", this.dbUsername);
@@ -107,8 +83,22 @@ public class ProductServiceDAL {
         }
     }
 
+    /**
+     * Run on warmup pings. Validating the connection sends it a round trip, so neither it
+     * nor the driver's code paths have gone cold by the time the next request uses them.
+     */
+    public void prime() {
+        try {
+            if (!connection.isValid(CONNECTION_CHECK_SECONDS)) {
+                LOGGER.warn("ProductServiceDAL::prime connection is no longer valid");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public List<Product> getProducts(Map<String, Object> event) {
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
         categoriesWorkaroundHack(event);
 
         List<Product> products = new ArrayList<>();
@@ -132,7 +122,7 @@ public class ProductServiceDAL {
     }
 
     public Product getProduct(Map<String, Object> event, Integer productId) {
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
         Product product = null;
         String sql = SELECT_PRODUCT_SQL.concat(" AND p.product_id = ?");
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
@@ -156,91 +146,93 @@ public class ProductServiceDAL {
 
     public Product updateProduct(Map<String, Object> event, Product product) {
         LoggingManager.log(event, "ProductServiceDAL::updateProduct " + product);
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
-        Category category = product.getCategory();
-        if (category != null && (category.getId() == null || category.getId() < 1)) {
-            LoggingManager.log(event, "ProductServiceDAL::updateProduct inserting new category " + category);
-            category = insertCategory(event, product.getCategory());
-            product.setCategory(category);
-        }
-        if (category != null && category.getId() > 0) {
-            try (PreparedStatement stmt1 = connection.prepareStatement("SELECT NOT EXISTS (SELECT * FROM product_categories WHERE product_id = ? AND category_id = ?)")) {
-                stmt1.setInt(1, product.getId());
-                stmt1.setInt(2, category.getId());
-                boolean insertProductCategory = false;
-                ResultSet rs = stmt1.executeQuery();
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
+        boolean committed = false;
+        try {
+            connection.setAutoCommit(false);
+            Category category = product.getCategory();
+            if (category != null && (category.getId() == null || category.getId() < 1)
+                    && category.getName() != null && !category.getName().isEmpty()) {
+                LoggingManager.log(event, "ProductServiceDAL::updateProduct inserting new category " + category);
+                category = upsertCategory(tenantId, category);
+                product.setCategory(category);
+            }
+            boolean mapCategory = category != null && category.getId() != null && category.getId() > 0;
+            // The product update and the product_categories mapping go out as a single statement
+            try (PreparedStatement stmt = connection.prepareStatement(mapCategory ? UPDATE_PRODUCT_CATEGORY_SQL : UPDATE_PRODUCT_SQL)) {
+                stmt.setString(1, product.getSku());
+                stmt.setString(2, product.getName());
+                stmt.setBigDecimal(3, product.getPrice());
+                stmt.setObject(4, tenantId);
+                stmt.setInt(5, product.getId());
+                if (mapCategory) {
+                    stmt.setInt(6, category.getId());
+                }
+                int affectedRows = 0;
+                ResultSet rs = stmt.executeQuery();
                 if (rs.next()) {
-                    insertProductCategory = rs.getBoolean(1);
+                    affectedRows = rs.getInt(1);
                 }
-                if (insertProductCategory) {
-                    LoggingManager.log(event, "ProductServiceDAL::updateProduct inserting product category mapping " + product.getId() + ", " + category.getId());
-                    try (PreparedStatement stmt2 = connection.prepareStatement("INSERT INTO product_categories (product_id, category_id) VALUES (?, ?)")) {
-                        stmt2.setInt(1, product.getId());
-                        stmt2.setInt(2, category.getId());
-                        int insertedRows = stmt2.executeUpdate();
-                    } catch (SQLException e) {
-                        throw new RuntimeException(e);
-                    }
+                rs.close();
+                if (affectedRows != 1) {
+                    throw new RuntimeException("Update failed for product " + product.getId());
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
             }
-        }
-        try (PreparedStatement stmt = connection.prepareStatement(UPDATE_PRODUCT_SQL)) {
-            stmt.setObject(1, tenantId);
-            stmt.setString(2, product.getSku());
-            stmt.setString(3, product.getName());
-            stmt.setBigDecimal(4, product.getPrice());
-            stmt.setInt(5, product.getId());
-            int affected = stmt.executeUpdate();
+            connection.commit();
+            committed = true;
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            endTransaction(committed);
         }
         return product;
     }
 
     public Product insertProduct(Map<String, Object> event, Product product) {
         LoggingManager.log(event, "ProductServiceDAL::insertProduct " + product);
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
-        Category category = product.getCategory();
-        if (category != null && category.getName() != null && !category.getName().isEmpty()) {
-            if (category.getId() == null || category.getId() < 1) {
-                category = insertCategory(event, category);
-            } else {
-                category = updateCategory(event, category);
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
+        boolean committed = false;
+        try {
+            connection.setAutoCommit(false);
+            Category category = product.getCategory();
+            boolean mapCategory = category != null && category.getName() != null && !category.getName().isEmpty();
+            if (mapCategory) {
+                if (category.getId() == null || category.getId() < 1) {
+                    category = upsertCategory(tenantId, category);
+                } else {
+                    category = updateCategory(tenantId, category);
+                }
+                product.setCategory(category);
             }
-            product.setCategory(category);
-        }
-        try (PreparedStatement stmt = connection.prepareStatement(INSERT_PRODUCT_SQL, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setObject(1, tenantId);
-            stmt.setString(2, product.getSku());
-            stmt.setString(3, product.getName());
-            stmt.setBigDecimal(4, product.getPrice());
-            stmt.executeUpdate();
-            ResultSet rs = stmt.getGeneratedKeys();
-            if (rs.next()) {
-                product.setId(rs.getInt("product_id"));
+            // The product insert and the product_categories mapping go out as a single statement
+            try (PreparedStatement stmt = connection.prepareStatement(mapCategory ? INSERT_PRODUCT_CATEGORY_SQL : INSERT_PRODUCT_SQL)) {
+                stmt.setObject(1, tenantId);
+                stmt.setString(2, product.getSku());
+                stmt.setString(3, product.getName());
+                stmt.setBigDecimal(4, product.getPrice());
+                if (mapCategory) {
+                    LoggingManager.log(event, "ProductServiceDAL::insertProduct inserting product category mapping for category " + category.getId());
+                    stmt.setInt(5, category.getId());
+                }
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    product.setId(rs.getInt("product_id"));
+                }
+                rs.close();
             }
+            connection.commit();
+            committed = true;
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            endTransaction(committed);
         }
-        if (category != null && category.getName() != null && !category.getName().isEmpty()) {
-            LoggingManager.log(event, "ProductServiceDAL::insertProduct inserting product category mapping " + product.getId() + ", " + category.getId());
-            try (PreparedStatement stmt2 = connection.prepareStatement("INSERT INTO product_categories (product_id, category_id) VALUES (?, ?)")) {
-                stmt2.setInt(1, product.getId());
-                stmt2.setInt(2, category.getId());
-                int insertedRows = stmt2.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
         return product;
     }
 
     public Product deleteProduct(Map<String, Object> event, Product product) {
         LoggingManager.log(event, "ProductServiceDAL::deleteProduct " + product);
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
         try (PreparedStatement stmt = connection.prepareStatement(DELETE_PRODUCT_SQL)) {
             stmt.setObject(1, tenantId);
             stmt.setInt(2, product.getId());
@@ -258,7 +250,7 @@ public class ProductServiceDAL {
         categoriesWorkaroundHack(event);
 
         LoggingManager.log(event, "ProductServiceDAL::getCategories");
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
 
         List<Category> categories = new ArrayList<>();
         try (PreparedStatement stmt = connection.prepareStatement(SELECT_CATEGORY_SQL)) {
@@ -279,7 +271,7 @@ public class ProductServiceDAL {
 
     public Category getCategory(Map<String, Object> event, Integer categoryId) {
         LoggingManager.log(event, "ProductServiceDAL::getCategory");
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
 
         Category category = null;
         String sql = SELECT_CATEGORY_SQL.concat(" AND category_id = ?");
@@ -301,22 +293,17 @@ public class ProductServiceDAL {
 
     public Category updateCategory(Map<String, Object> event, Category category) {
         LoggingManager.log(event, "ProductServiceDAL::updateCategory " + category);
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
-
-        try (PreparedStatement stmt = connection.prepareStatement(UPDATE_CATEGORY_SQL)) {
-            stmt.setString(1, category.getName());
-            stmt.setObject(2, tenantId);
-            stmt.setInt(3, category.getId());
-            int affected = stmt.executeUpdate();
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
+        try {
+            return updateCategory(tenantId, category);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return category;
     }
 
     public Category insertCategory(Map<String, Object> event, Category category) {
         LoggingManager.log(event, "ProductServiceDAL::insertCategory " + category);
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
 
         try (PreparedStatement stmt = connection.prepareStatement(INSERT_CATEGORY_SQL, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setObject(1, tenantId);
@@ -335,7 +322,7 @@ public class ProductServiceDAL {
 
     public Category deleteCategory(Map<String, Object> event, Category category) {
         LoggingManager.log(event, "ProductServiceDAL::deleteCategory " + category);
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
         try (PreparedStatement stmt = connection.prepareStatement(DELETE_CATEGORY_SQL)) {
             stmt.setObject(1, tenantId);
             stmt.setInt(2, category.getId());
@@ -349,8 +336,44 @@ public class ProductServiceDAL {
         return category;
     }
 
+    private Category updateCategory(UUID tenantId, Category category) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(UPDATE_CATEGORY_SQL)) {
+            stmt.setString(1, category.getName());
+            stmt.setObject(2, tenantId);
+            stmt.setInt(3, category.getId());
+            stmt.executeUpdate();
+        }
+        return category;
+    }
+
+    // Concurrent writers adding the same new category both get back the one category_id
+    // instead of the loser failing on the (tenant_id, category) unique constraint
+    private Category upsertCategory(UUID tenantId, Category category) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(UPSERT_CATEGORY_SQL)) {
+            stmt.setObject(1, tenantId);
+            stmt.setString(2, category.getName());
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                category.setId(rs.getInt("category_id"));
+            }
+            rs.close();
+        }
+        return category;
+    }
+
+    private void endTransaction(boolean committed) {
+        try {
+            if (!committed) {
+                connection.rollback();
+            }
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            LOGGER.error("Failed to end transaction", e);
+        }
+    }
+
     public void categoriesWorkaroundHack(Map<String, Object> event) {
-        UUID tenantId = UUID.fromString(new TokenManager().getTenantId(event));
+        UUID tenantId = UUID.fromString(TokenManager.getInstance().getTenantId(event));
         try (PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(*) FROM category WHERE tenant_id = ?")) {
             stmt.setObject(1, tenantId);
             int tenantCategories = 0;
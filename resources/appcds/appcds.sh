@@ -0,0 +1,105 @@
+#!/bin/bash
+
+# Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+# 
+# Permission is hereby granted, free of charge, to any person obtaining a copy of this
+# software and associated documentation files (the "Software"), to deal in the Software
+# without restriction, including without limitation the rights to use, copy, modify,
+# merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+# permit persons to whom the Software is furnished to do so.
+# 
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+# INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+# PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+# HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+# OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+# SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+# Builds an AppCDS archive for each Lambda function and packages it in the function's
+# deployment zip as <function>.jsa, next to the lib/ jars it was trained against.
+#
+#   ./appcds.sh [-r rounds] [function ...]    (default: every directory under functions/)
+#
+# The training run starts the function in the Lambda base image against local stand-ins
+# for the AWS services (LocalStack, and Postgres where the function needs RDS), replays the
+# events in functions/<function>/events a few times and then lets the JVM exit, which
+# writes the archive of every class it loaded on top of the JDK's own. The loaded class list
+# is kept alongside in $APPCDS_WORK/<function>/cds for reference.
+#
+# To use the archive, set this environment variable on the function:
+#   JAVA_TOOL_OPTIONS=-XX:SharedArchiveFile=/var/task/<function>.jsa -Xshare:auto
+# With -Xshare:auto a missing or mismatched archive is ignored, so the worst case is the
+# cold start you had before. benchmark.sh measures what it buys.
+
+set -e
+
+APPCDS_DIR=$(cd "$(dirname "$0")" && pwd)
+REPO_DIR=$(cd "$APPCDS_DIR/../.." && pwd)
+source "$APPCDS_DIR/lib.sh"
+
+ROUNDS=3
+while getopts "r:" opt; do
+	case $opt in
+		r) ROUNDS=$OPTARG ;;
+		*) exit 1 ;;
+	esac
+done
+shift $((OPTIND - 1))
+
+FUNCTIONS="$@"
+if [ -z "$FUNCTIONS" ]; then
+	FUNCTIONS=$(ls "$APPCDS_DIR/functions")
+fi
+
+trap stop_standins EXIT
+
+# The functions and the layer all depend on lambda-commons
+mvn -q -f "$REPO_DIR/resources/lambda-commons/pom.xml" install
+
+for FUNCTION in $FUNCTIONS; do
+	load_function $FUNCTION
+	echo "Training $FUNCTION ($HANDLER)"
+
+	if [ -n "$LAYER" ]; then
+		mvn -q -f "$REPO_DIR/$LAYER/pom.xml" install
+	fi
+	mvn -q -f "$MODULE_DIR/pom.xml" package
+
+	stage_function
+	start_standins
+
+	CONTAINER="appcds-train-$(echo $FUNCTION | tr '[:upper:]' '[:lower:]')"
+	remove_runtime $CONTAINER
+	start_runtime $CONTAINER "-XX:ArchiveClassesAtExit=/tmp/cds/${FUNCTION}.jsa -XX:DumpLoadedClassList=/tmp/cds/${FUNCTION}.classlist"
+
+	# The handler's error paths are as much a part of a real cold start as its happy path,
+	# so failures against the stand-ins are expected and ignored here
+	for ((round = 1; round <= ROUNDS; round++)); do
+		for EVENT in "$FUNCTION_DIR"/events/*.json; do
+			invoke "$EVENT" > /dev/null || true
+		done
+	done
+
+	stop_runtime_jvm $CONTAINER
+	ARCHIVE="$FUNCTION_WORK/cds/${FUNCTION}.jsa"
+	for ((wait = 0; wait < 60; wait++)); do
+		if [ -s "$ARCHIVE" ] && ! docker exec $CONTAINER /bin/sh -c 'grep -qx java /proc/[0-9]*/comm' 2> /dev/null; then
+			break
+		fi
+		sleep 1
+	done
+	if [ ! -s "$ARCHIVE" ]; then
+		echo "No archive written for $FUNCTION"
+		docker logs $CONTAINER 2>&1 | tail -20
+		remove_runtime $CONTAINER
+		exit 1
+	fi
+	remove_runtime $CONTAINER
+
+	echo "$FUNCTION loaded $(wc -l < "$FUNCTION_WORK/cds/${FUNCTION}.classlist") classes, archive is $(du -h "$ARCHIVE" | cut -f1)"
+	cp "$ARCHIVE" "$FUNCTION_WORK/task/"
+	# Re-zip from the staged tree so the jar timestamps the archive recorded are preserved
+	rm -f "$ARTIFACT"
+	(cd "$FUNCTION_WORK/task" && zip -q -r -X "$ARTIFACT" .)
+	echo "Packaged $ARTIFACT"
+done
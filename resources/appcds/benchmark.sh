@@ -0,0 +1,104 @@
+#!/bin/bash
+
+# Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+# 
+# Permission is hereby granted, free of charge, to any person obtaining a copy of this
+# software and associated documentation files (the "Software"), to deal in the Software
+# without restriction, including without limitation the rights to use, copy, modify,
+# merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+# permit persons to whom the Software is furnished to do so.
+# 
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+# INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+# PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+# HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+# OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+# SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+# Cold start benchmark for the AppCDS archives built by appcds.sh.
+#
+#   ./benchmark.sh [-n runs] [function ...]    (default: every directory under functions/)
+#
+# Each run starts a fresh runtime in the Lambda base image, so every measured invocation is
+# a cold start, once without and once with the function's archive. It reports the median
+# Init Duration the emulator logs (JVM start, class loading and the handler's static init)
+# and the median round trip of that first invocation, and appends every sample to
+# $APPCDS_WORK/benchmark.csv.
+
+set -e
+
+APPCDS_DIR=$(cd "$(dirname "$0")" && pwd)
+REPO_DIR=$(cd "$APPCDS_DIR/../.." && pwd)
+source "$APPCDS_DIR/lib.sh"
+
+RUNS=10
+while getopts "n:" opt; do
+	case $opt in
+		n) RUNS=$OPTARG ;;
+		*) exit 1 ;;
+	esac
+done
+shift $((OPTIND - 1))
+
+FUNCTIONS="$@"
+if [ -z "$FUNCTIONS" ]; then
+	FUNCTIONS=$(ls "$APPCDS_DIR/functions")
+fi
+
+trap stop_standins EXIT
+
+RESULTS="$APPCDS_WORK/benchmark.csv"
+mkdir -p "$APPCDS_WORK"
+if [ ! -f "$RESULTS" ]; then
+	echo "function,mode,run,init_ms,first_invoke_ms" > "$RESULTS"
+fi
+
+SUMMARY=""
+for FUNCTION in $FUNCTIONS; do
+	load_function $FUNCTION
+	if ! unzip -l "$ARTIFACT" 2> /dev/null | grep -q "${FUNCTION}.jsa"; then
+		echo "$ARTIFACT has no archive, run appcds.sh $FUNCTION first"
+		exit 1
+	fi
+	stage_function
+	start_standins
+	EVENT=$(ls "$FUNCTION_DIR"/events/*.json | head -1)
+	CONTAINER="appcds-bench-$(echo $FUNCTION | tr '[:upper:]' '[:lower:]')"
+
+	for MODE in baseline appcds; do
+		OPTIONS=""
+		if [ "$MODE" = "appcds" ]; then
+			OPTIONS="-XX:SharedArchiveFile=/var/task/${FUNCTION}.jsa -Xshare:auto"
+		fi
+		INIT_SAMPLES=""
+		INVOKE_SAMPLES=""
+		for ((run = 1; run <= RUNS; run++)); do
+			remove_runtime $CONTAINER
+			start_runtime $CONTAINER "$OPTIONS"
+			FIRST_INVOKE=$(invoke "$EVENT" || true)
+			INIT=$(docker logs $CONTAINER 2>&1 | grep -o 'Init Duration: [0-9.]*' | head -1 | awk '{ printf "%d", $3 }')
+			# A rejected archive only shows up as a warning in the runtime's output
+			if [ "$MODE" = "appcds" ] && [ $run -eq 1 ] && docker logs $CONTAINER 2>&1 | grep -q '\[cds\]'; then
+				docker logs $CONTAINER 2>&1 | grep '\[cds\]' | head -5
+			fi
+			remove_runtime $CONTAINER
+			echo "$FUNCTION,$MODE,$run,$INIT,$FIRST_INVOKE" >> "$RESULTS"
+			INIT_SAMPLES="$INIT_SAMPLES $INIT"
+			INVOKE_SAMPLES="$INVOKE_SAMPLES $FIRST_INVOKE"
+		done
+		INIT_MEDIAN=$(echo $INIT_SAMPLES | tr ' ' '\n' | median)
+		INVOKE_MEDIAN=$(echo $INVOKE_SAMPLES | tr ' ' '\n' | median)
+		echo "$FUNCTION $MODE init ${INIT_MEDIAN} ms first invoke ${INVOKE_MEDIAN} ms"
+		if [ "$MODE" = "baseline" ]; then
+			BASELINE_INIT=$INIT_MEDIAN
+			BASELINE_INVOKE=$INVOKE_MEDIAN
+		else
+			SUMMARY="${SUMMARY}$(printf '%-22s %10s %10s %10s %10s' $FUNCTION $BASELINE_INIT $INIT_MEDIAN $((BASELINE_INIT - INIT_MEDIAN)) $((BASELINE_INVOKE - INVOKE_MEDIAN)))\n"
+		fi
+	done
+done
+
+echo
+printf '%-22s %10s %10s %10s %10s\n' "Function" "Init" "AppCDS" "Init gain" "1st gain"
+printf "$SUMMARY"
+echo "Samples in $RESULTS"
@@ -0,0 +1,6 @@
+awslocal dynamodb create-table --table-name saas-factory-srvls-wrkshp-user-directory \
+	--attribute-definitions AttributeName=username,AttributeType=S \
+	--key-schema AttributeName=username,KeyType=HASH \
+	--billing-mode PAY_PER_REQUEST || true
+awslocal dynamodb put-item --table-name saas-factory-srvls-wrkshp-user-directory \
+	--item '{"username": {"S": "training@example.com"}, "userPoolId": {"S": "us-east-1_training"}, "appClientId": {"S": "training"}}'
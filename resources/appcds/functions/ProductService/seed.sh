@@ -0,0 +1,7 @@
+put() {
+	awslocal ssm put-parameter --name /saas-factory-srvls-wrkshp/pool/$1 --type String --value $2 --overwrite
+}
+put DB_HOST appcds-standin-db
+put DB_NAME saas_factory_srvls_wrkshp
+put DB_USER training
+put DB_PASS training
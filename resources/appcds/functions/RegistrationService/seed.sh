@@ -0,0 +1,3 @@
+for name in API_GW WORKSHOP_BUCKET KEY_PAIR VPC APP_SG PRIVATE_SUBNETS PIPELINE_BUCKET CODE_DEPLOY DEPLOYMENT_GROUP CODE_DEPLOY_LAMBDA ALB_LISTENER RDS_ADD_USER_LAMBDA; do
+	awslocal ssm put-parameter --name $name --type String --value training --overwrite
+done
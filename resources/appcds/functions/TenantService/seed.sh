@@ -0,0 +1,7 @@
+awslocal dynamodb create-table --table-name saas-factory-srvls-wrkshp-tenants \
+	--attribute-definitions AttributeName=id,AttributeType=S AttributeName=plan,AttributeType=S AttributeName=companyName,AttributeType=S \
+	--key-schema AttributeName=id,KeyType=HASH \
+	--global-secondary-indexes 'IndexName=plan-companyName-index,KeySchema=[{AttributeName=plan,KeyType=HASH},{AttributeName=companyName,KeyType=RANGE}],Projection={ProjectionType=ALL}' \
+	--billing-mode PAY_PER_REQUEST || true
+awslocal dynamodb put-item --table-name saas-factory-srvls-wrkshp-tenants \
+	--item '{"id": {"S": "00000000-0000-0000-0000-000000000000"}, "companyName": {"S": "Training Co"}, "plan": {"S": "Standard Tier"}, "active": {"BOOL": true}}'
@@ -0,0 +1,132 @@
+#!/bin/bash
+
+# Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+# 
+# Permission is hereby granted, free of charge, to any person obtaining a copy of this
+# software and associated documentation files (the "Software"), to deal in the Software
+# without restriction, including without limitation the rights to use, copy, modify,
+# merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+# permit persons to whom the Software is furnished to do so.
+# 
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+# INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+# PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+# HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+# OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+# SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+# Shared by appcds.sh and benchmark.sh. Every run happens inside the Lambda Java 21 base
+# image through its runtime interface emulator, so the class path, class loaders and JDK
+# the archive is built against are the same ones Lambda uses.
+
+LAMBDA_IMAGE=${LAMBDA_IMAGE:-public.ecr.aws/lambda/java:21}
+STANDIN_IMAGE=${STANDIN_IMAGE:-localstack/localstack:3}
+POSTGRES_IMAGE=${POSTGRES_IMAGE:-postgres:16-alpine}
+APPCDS_WORK=${APPCDS_WORK:-/tmp/appcds}
+APPCDS_NETWORK=saas-factory-srvls-wrkshp-appcds
+STANDIN=appcds-standin
+STANDIN_DB=appcds-standin-db
+RUNTIME_PORT=${RUNTIME_PORT:-9000}
+INVOKE_URL="http://localhost:${RUNTIME_PORT}/2015-03-31/functions/function/invocations"
+
+# Reads functions/<name>/function.env which sets MODULE (relative to the repo root), HANDLER
+# and optionally LAYER (the module of a layer the function uses) and POSTGRES=true
+load_function() {
+	FUNCTION=$1
+	FUNCTION_DIR="$APPCDS_DIR/functions/$FUNCTION"
+	if [ ! -f "$FUNCTION_DIR/function.env" ]; then
+		echo "Unknown function $FUNCTION"
+		exit 1
+	fi
+	MODULE=""
+	HANDLER=""
+	LAYER=""
+	POSTGRES=""
+	source "$FUNCTION_DIR/function.env"
+	MODULE_DIR="$REPO_DIR/$MODULE"
+	ARTIFACT="$MODULE_DIR/target/${FUNCTION}-lambda.zip"
+	FUNCTION_WORK="$APPCDS_WORK/$FUNCTION"
+}
+
+# Unpacks the deployment zip the way Lambda does, into what becomes /var/task, and any
+# layer into what becomes /opt
+stage_function() {
+	rm -rf "$FUNCTION_WORK"
+	mkdir -p "$FUNCTION_WORK/task" "$FUNCTION_WORK/opt" "$FUNCTION_WORK/cds"
+	unzip -q "$ARTIFACT" -d "$FUNCTION_WORK/task"
+	if [ -n "$LAYER" ]; then
+		LAYER_ZIP=$(ls "$REPO_DIR/$LAYER"/target/*-lambda.zip | head -1)
+		unzip -q "$LAYER_ZIP" -d "$FUNCTION_WORK/opt"
+	fi
+	# The runtime can write to /tmp/cds as the sandbox user
+	chmod 777 "$FUNCTION_WORK/cds"
+}
+
+start_standins() {
+	docker network inspect $APPCDS_NETWORK > /dev/null 2>&1 || docker network create $APPCDS_NETWORK > /dev/null
+	if [ -z "$(docker ps -q -f name=^${STANDIN}$)" ]; then
+		echo "Starting AWS stand-in"
+		docker run -d --rm --name $STANDIN --network $APPCDS_NETWORK $STANDIN_IMAGE > /dev/null
+		until docker exec $STANDIN curl -s localhost:4566/_localstack/health | grep -q '"dynamodb"'; do
+			sleep 2
+		done
+	fi
+	if [ "$POSTGRES" = "true" ] && [ -z "$(docker ps -q -f name=^${STANDIN_DB}$)" ]; then
+		echo "Starting database stand-in"
+		docker run -d --rm --name $STANDIN_DB --network $APPCDS_NETWORK \
+			-e POSTGRES_USER=training -e POSTGRES_PASSWORD=training -e POSTGRES_DB=saas_factory_srvls_wrkshp \
+			$POSTGRES_IMAGE > /dev/null
+		until docker exec $STANDIN_DB pg_isready -q; do
+			sleep 1
+		done
+	fi
+	if [ -f "$FUNCTION_DIR/seed.sh" ]; then
+		echo "Seeding stand-in for $FUNCTION"
+		docker exec -i $STANDIN bash < "$FUNCTION_DIR/seed.sh" > /dev/null
+	fi
+}
+
+stop_standins() {
+	docker rm -f $STANDIN $STANDIN_DB > /dev/null 2>&1 || true
+	docker network rm $APPCDS_NETWORK > /dev/null 2>&1 || true
+}
+
+# start_runtime <container name> <JAVA_TOOL_OPTIONS>
+start_runtime() {
+	docker run -d --name "$1" --network $APPCDS_NETWORK -p ${RUNTIME_PORT}:8080 \
+		-v "$FUNCTION_WORK/task:/var/task:ro" \
+		-v "$FUNCTION_WORK/opt:/opt:ro" \
+		-v "$FUNCTION_WORK/cds:/tmp/cds" \
+		-e AWS_REGION=us-east-1 \
+		-e AWS_ACCESS_KEY_ID=training \
+		-e AWS_SECRET_ACCESS_KEY=training \
+		-e AWS_ENDPOINT_URL=http://${STANDIN}:4566 \
+		-e JAVA_TOOL_OPTIONS="$2" \
+		$LAMBDA_IMAGE "$HANDLER" > /dev/null
+	until curl -s -o /dev/null "http://localhost:${RUNTIME_PORT}"; do
+		sleep 0.2
+	done
+}
+
+# invoke <event file>, prints the round trip time in milliseconds
+invoke() {
+	curl -s -o /dev/null -w '%{time_total}' -d @"$1" "$INVOKE_URL" | awk '{ printf "%d", $1 * 1000 }'
+}
+
+# Lets the JVM exit on its own so it writes anything it archives at exit
+stop_runtime_jvm() {
+	docker exec "$1" /bin/sh -c 'for comm in /proc/[0-9]*/comm; do
+		if [ "$(cat $comm 2> /dev/null)" = "java" ]; then
+			pid=${comm#/proc/}
+			kill -TERM ${pid%/comm}
+		fi
+	done'
+}
+
+remove_runtime() {
+	docker rm -f "$1" > /dev/null 2>&1 || true
+}
+
+median() {
+	sort -n | awk '{ values[NR] = $1 } END { if (NR % 2) { print values[(NR + 1) / 2] } else { print int((values[NR / 2] + values[NR / 2 + 1]) / 2) } }'
+}
@@ -28,11 +28,16 @@ import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.*;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -43,31 +48,65 @@ public class AuthService implements RequestHandler<Map<String, Object>, APIGatew
     private final static Map<String, String> CORS = Stream
             .of(new AbstractMap.SimpleEntry<String, String>("Access-Control-Allow-Origin", "*"))
             .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    private final static String USER_DIRECTORY_TABLE = "saas-factory-srvls-wrkshp-user-directory";
+    private final static int USER_DIRECTORY_CACHE_SIZE = 1000;
+    // The TenantService drops a tenant's directory entries when its user pool changes or the
+    // tenant is deleted. It can't reach this container's memory, so entries are only served
+    // from memory for this long before the table is read again.
+    private final static long USER_DIRECTORY_TTL_MILLIS = 5 * 60 * 1000;
+    // Short enough that a user who signs in right after registering isn't locked out for long
+    private final static long UNKNOWN_USER_TTL_MILLIS = 30 * 1000;
 
     private CognitoIdentityProviderClient cognito;
+    private DynamoDbClient ddb;
+    // Access ordered so the least recently signed in user is evicted first
+    private final Map<String, UserDirectoryEntry> userDirectory = Collections.synchronizedMap(
+            new LinkedHashMap<String, UserDirectoryEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, UserDirectoryEntry> eldest) {
+                    return size() > USER_DIRECTORY_CACHE_SIZE;
+                }
+            }
+    );
+    // Usernames the fallback search came up empty for, and when to stop trusting that.
+    // Keeps repeated sign-ins for an unknown user from paging through every user pool.
+    private final Map<String, Long> unknownUsers = Collections.synchronizedMap(
+            new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > USER_DIRECTORY_CACHE_SIZE;
+                }
+            }
+    );
+    // A user pool's app client never changes after onboarding, and a tenant that moves to a
+    // new user pool gets a new pool id, so these never go stale. Warmed from the directory
+    // entries, which RegistrationService writes from the tenant's user pool and app client.
+    private final Map<String, String> appClients = new ConcurrentHashMap<>();
 
     public AuthService() {
         this.cognito = CognitoIdentityProviderClient.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
+
+        this.ddb = DynamoDbClient.builder()
+                .httpClientBuilder(UrlConnectionHttpClient.builder())
+                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
+                .build();
+
+        // Lambda creates the handler once per container, during init
+        StartupManager.init("AuthService", AuthService::prime);
     }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(Map<String, Object> event, Context context) {
         //logRequestEvent(event);
-        if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-        } else if (event.containsKey("body")) {
-            try {
-                Map<String, String> requestBody = MAPPER.readValue((String) event.get("body"), HashMap.class);
-                if (requestBody != null && "warmup".equals(requestBody.get("source"))) {
-                    LOGGER.info("Warming up");
-                    return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-                }
-            } catch (IOException e) {
-            }
         }
 
         APIGatewayProxyResponseEvent response = null;
@@ -77,24 +116,46 @@ public class AuthService implements RequestHandler<Map<String, Object>, APIGatew
             if (signin != null && !signin.isEmpty()) {
                 String username = signin.get("username");
                 String password = signin.get("password");
+                // A client holding the refresh token from an earlier sign-in can renew
+                // its tokens without sending the password again
+                String refreshToken = signin.get("refreshToken");
+                // The username picks the tenant's user pool, so it's needed for a refresh too
+                boolean refreshing = refreshToken != null && !refreshToken.isEmpty();
+                if (username == null || username.isEmpty() || (!refreshing && (password == null || password.isEmpty()))) {
+                    error.put("message", refreshing ? "username is required" : "username and password are required");
+                    return new APIGatewayProxyResponseEvent()
+                            .withBody(toJson(error))
+                            .withStatusCode(400);
+                }
 
-//                String userPoolId = findUserPool(username);
-                List<String> userPoolIds = findUserPools(username);
-
-
-                String userPoolId = userPoolIds.get(0);
-                String appClientId = appClient(userPoolId);
+                UserDirectoryEntry directoryEntry = lookupUser(username);
+                if (directoryEntry == null) {
+                    error.put("message", "User not found");
+                    return new APIGatewayProxyResponseEvent()
+                            .withBody(toJson(error))
+                            .withStatusCode(401);
+                }
+                String userPoolId = directoryEntry.getUserPoolId();
+                String appClientId = directoryEntry.getAppClientId();
+                final AuthFlowType authFlow;
+                final Map<String, String> authParameters;
+                if (refreshing) {
+                    authFlow = AuthFlowType.REFRESH_TOKEN_AUTH;
+                    authParameters = Collections.singletonMap("REFRESH_TOKEN", refreshToken);
+                } else {
+                    authFlow = AuthFlowType.ADMIN_NO_SRP_AUTH;
+                    authParameters = Stream.of(
+                            new AbstractMap.SimpleEntry<String, String>("USERNAME", username),
+                            new AbstractMap.SimpleEntry<String, String>("PASSWORD", password)
+                            ).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                }
                 AdminInitiateAuthResponse authResponse = null;
                 try {
                     authResponse = cognito.adminInitiateAuth(request -> request
                             .userPoolId(userPoolId)
                             .clientId(appClientId)
-                            .authFlow(AuthFlowType.ADMIN_NO_SRP_AUTH)
-                            .authParameters(Stream.of(
-                                    new AbstractMap.SimpleEntry<String, String>("USERNAME", username),
-                                    new AbstractMap.SimpleEntry<String, String>("PASSWORD", password)
-                                    ).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
-                            )
+                            .authFlow(authFlow)
+                            .authParameters(authParameters)
                     );
 
                     String challenge = authResponse.challengeNameAsString();
@@ -109,7 +170,8 @@ public class AuthService implements RequestHandler<Map<String, Object>, APIGatew
                                 .accessToken(auth.accessToken())
                                 .idToken(auth.idToken())
                                 .expiresIn(auth.expiresIn())
-                                .refreshToken(auth.refreshToken())
+                                // Cognito doesn't issue a new refresh token on REFRESH_TOKEN_AUTH
+                                .refreshToken(auth.refreshToken() != null ? auth.refreshToken() : refreshToken)
                                 .tokenType(auth.tokenType())
                                 .build();
 
@@ -119,6 +181,10 @@ public class AuthService implements RequestHandler<Map<String, Object>, APIGatew
                                 .withStatusCode(200);
                     }
                 } catch (SdkServiceException cognitoError) {
+                    if (cognitoError instanceof ResourceNotFoundException) {
+                        // The tenant's user pool or app client has been removed or replaced
+                        invalidateUserPool(userPoolId);
+                    }
                     LOGGER.error("CognitoIdentity::AdminInitiateAuth", cognitoError);
                     LOGGER.error(getFullStackTrace(cognitoError));
                     error.put("message", cognitoError.getMessage());
@@ -142,58 +208,165 @@ public class AuthService implements RequestHandler<Map<String, Object>, APIGatew
         return response;
     }
 
-    protected List<String> findUserPools(String username) {
-        List<String> poolsWithUsername = new ArrayList<>();
-        String userPoolId = null;
-        ListUserPoolsResponse userPoolsResponse = cognito.listUserPools(request -> request.maxResults(60));
-        List<UserPoolDescriptionType> userPools = userPoolsResponse.userPools();
-        if (userPools != null) {
-            for (UserPoolDescriptionType userPool : userPools) {
-                ListUsersResponse usersResponse = cognito.listUsers(request -> request
-                        .userPoolId(userPool.id())
-                );
-                List<UserType> users = usersResponse.users();
-                if (users != null) {
-                    for (UserType user : users) {
-                        Map<String, String> attributes = user.attributes()
-                                .stream()
-                                .map(a -> new AbstractMap.SimpleEntry<String, String>(a.name(), a.value()))
-                                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-                        CognitoUser cognitoUser = CognitoUser.builder()
-                                .username(user.username())
-                                .status(user.userStatusAsString())
-                                .attributes(attributes)
-                                .build();
-                        try {
-                            LOGGER.info(MAPPER.writeValueAsString(cognitoUser));
-                        } catch (Exception e) {
-                        }
-                        if (username.equals(user.username())) {
-                            userPoolId = userPool.id();
-                            poolsWithUsername.add(userPoolId);
-//                            break;
-                        }
-                    }
+    /**
+     * Resolve the user pool and app client for a username. The in-memory LRU is checked
+     * first, then the user directory table written by the RegistrationService. Users that
+     * registered before the directory existed fall back to searching the user pools, and
+     * what that search finds is written to the directory so it only happens once per user.
+     * @param username
+     * @return the directory entry or null if the username isn't in any user pool
+     */
+    protected UserDirectoryEntry lookupUser(String username) {
+        UserDirectoryEntry entry = userDirectory.get(username);
+        if (entry != null && entry.getLoadedAt() + USER_DIRECTORY_TTL_MILLIS < System.currentTimeMillis()) {
+            userDirectory.remove(username);
+            entry = null;
+        }
+        if (entry == null) {
+            Long unknownUntil = unknownUsers.get(username);
+            if (unknownUntil != null) {
+                if (unknownUntil > System.currentTimeMillis()) {
+                    return null;
+                }
+                unknownUsers.remove(username);
+            }
+            entry = getUserDirectoryEntry(username);
+            if (entry != null) {
+                appClients.putIfAbsent(entry.getUserPoolId(), entry.getAppClientId());
+            } else {
+                entry = findUser(username);
+                if (entry != null) {
+                    saveUserDirectoryEntry(entry);
+                } else {
+                    unknownUsers.put(username, System.currentTimeMillis() + UNKNOWN_USER_TTL_MILLIS);
                 }
             }
+            if (entry != null) {
+                userDirectory.put(username, entry);
+            }
         }
-//        return userPoolId;
-        for (String poolId : poolsWithUsername) {
-            LOGGER.info("Username " + username + " in pool " + poolId + "\n");
+        return entry;
+    }
+
+    protected UserDirectoryEntry getUserDirectoryEntry(String username) {
+        long startTimeMillis = System.currentTimeMillis();
+        UserDirectoryEntry entry = null;
+        try {
+            GetItemResponse response = ddb.getItem(request -> request
+                    .tableName(USER_DIRECTORY_TABLE)
+                    .key(Collections.singletonMap("username", AttributeValue.builder().s(username).build()))
+            );
+            if (response.hasItem() && !response.item().isEmpty()) {
+                Map<String, AttributeValue> item = response.item();
+                entry = new UserDirectoryEntry(username, item.get("userPoolId").s(), item.get("appClientId").s());
+            }
+        } catch (DynamoDbException e) {
+            LOGGER.error("AuthService::getUserDirectoryEntry " + getFullStackTrace(e));
         }
-        return poolsWithUsername;
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("AuthService::getUserDirectoryEntry exec " + totalTimeMillis);
+        return entry;
+    }
+
+    /**
+     * Write a user found by the fallback search back to the user directory table. Best
+     * effort, the sign-in goes ahead whether or not the write succeeds.
+     * @param entry
+     */
+    protected void saveUserDirectoryEntry(UserDirectoryEntry entry) {
+        long startTimeMillis = System.currentTimeMillis();
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("username", AttributeValue.builder().s(entry.getUsername()).build());
+        item.put("userPoolId", AttributeValue.builder().s(entry.getUserPoolId()).build());
+        item.put("appClientId", AttributeValue.builder().s(entry.getAppClientId()).build());
+        // The TenantService finds a tenant's entries by this when its user pool changes
+        if (entry.getTenantId() != null) {
+            item.put("tenantId", AttributeValue.builder().s(entry.getTenantId()).build());
+        }
+        try {
+            ddb.putItem(request -> request.tableName(USER_DIRECTORY_TABLE).item(item));
+        } catch (DynamoDbException e) {
+            LOGGER.error("AuthService::saveUserDirectoryEntry " + getFullStackTrace(e));
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("AuthService::saveUserDirectoryEntry exec " + totalTimeMillis);
+    }
+
+    protected UserDirectoryEntry findUser(String username) {
+        long startTimeMillis = System.currentTimeMillis();
+        UserDirectoryEntry entry = null;
+        // Page through the pools and let Cognito filter each pool's users for us,
+        // stopping at the first pool that has the username
+        String nextToken = null;
+        do {
+            final String token = nextToken;
+            ListUserPoolsResponse userPoolsResponse = cognito.listUserPools(request -> request
+                    .maxResults(60)
+                    .nextToken(token)
+            );
+            List<UserPoolDescriptionType> userPools = userPoolsResponse.userPools();
+            if (userPools != null) {
+                for (UserPoolDescriptionType userPool : userPools) {
+                    ListUsersResponse usersResponse = cognito.listUsers(request -> request
+                            .userPoolId(userPool.id())
+                            .filter("username = \"" + username.replace("\"", "\\\"") + "\"")
+                            .limit(1)
+                    );
+                    if (usersResponse.users() != null && !usersResponse.users().isEmpty()) {
+                        String tenantId = usersResponse.users().get(0).attributes().stream()
+                                .filter(attribute -> "custom:tenant_id".equals(attribute.name()))
+                                .map(AttributeType::value)
+                                .findFirst()
+                                .orElse(null);
+                        entry = new UserDirectoryEntry(username, userPool.id(), appClient(userPool.id()), tenantId);
+                        break;
+                    }
+                }
+            }
+            nextToken = userPoolsResponse.nextToken();
+        } while (entry == null && nextToken != null && !nextToken.isEmpty());
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("AuthService::findUser exec " + totalTimeMillis);
+        return entry;
     }
 
     protected String appClient(String userPoolId) {
-        String appClientId = null;
-        ListUserPoolClientsResponse appClientsResponse = cognito.listUserPoolClients(request -> request.userPoolId(userPoolId));
-        List<UserPoolClientDescription> appClients = appClientsResponse.userPoolClients();
-        if (appClients != null && !appClients.isEmpty()) {
-            appClientId = appClients.get(0).clientId();
+        String appClientId = appClients.get(userPoolId);
+        if (appClientId == null) {
+            ListUserPoolClientsResponse appClientsResponse = cognito.listUserPoolClients(request -> request.userPoolId(userPoolId));
+            List<UserPoolClientDescription> userPoolClients = appClientsResponse.userPoolClients();
+            if (userPoolClients != null && !userPoolClients.isEmpty()) {
+                appClientId = userPoolClients.get(0).clientId();
+                appClients.put(userPoolId, appClientId);
+            }
         }
         return appClientId;
     }
 
+    /**
+     * Forget everything cached for a user pool so the next sign-in resolves it again
+     * @param userPoolId
+     */
+    protected void invalidateUserPool(String userPoolId) {
+        LOGGER.info("AuthService::invalidateUserPool " + userPoolId);
+        appClients.remove(userPoolId);
+        synchronized (userDirectory) {
+            userDirectory.values().removeIf(entry -> userPoolId.equals(entry.getUserPoolId()));
+        }
+    }
+
+    /**
+     * Run during init so Jackson's map (de)serializers are ready
+     * before the first sign in needs them
+     */
+    private static void prime() {
+        try {
+            MAPPER.readValue(toJson(Collections.singletonMap("username", "warmup")), Map.class);
+        } catch (IOException e) {
+            LOGGER.warn("AuthService::prime " + e.getMessage());
+        }
+    }
+
     private static String toJson(Object obj) {
         String json = null;
         try {
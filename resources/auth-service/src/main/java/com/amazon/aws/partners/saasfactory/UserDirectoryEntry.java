@@ -0,0 +1,57 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+public class UserDirectoryEntry {
+
+    private final String username;
+    private final String userPoolId;
+    private final String appClientId;
+    private final String tenantId;
+    private final long loadedAt = System.currentTimeMillis();
+
+    public UserDirectoryEntry(String username, String userPoolId, String appClientId) {
+        this(username, userPoolId, appClientId, null);
+    }
+
+    public UserDirectoryEntry(String username, String userPoolId, String appClientId, String tenantId) {
+        this.username = username;
+        this.userPoolId = userPoolId;
+        this.appClientId = appClientId;
+        this.tenantId = tenantId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getUserPoolId() {
+        return userPoolId;
+    }
+
+    public String getAppClientId() {
+        return appClientId;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+}
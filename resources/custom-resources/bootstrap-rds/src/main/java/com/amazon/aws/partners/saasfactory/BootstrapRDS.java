@@ -114,10 +114,7 @@ public class BootstrapRDS implements RequestHandler<Map<String, Object>, Object>
                             Statement sql = connection.createStatement()) {
                         connection.setAutoCommit(false);
                         InputStream bootstrapSql = Thread.currentThread().getContextClassLoader().getResourceAsStream("bootstrap.sql");
-                        Scanner bootstrapSqlScanner = new Scanner(bootstrapSql, "UTF-8");
-                        bootstrapSqlScanner.useDelimiter(";");
-                        while (bootstrapSqlScanner.hasNext()) {
-                            String ddl = bootstrapSqlScanner.next();
+                        for (String ddl : sqlStatements(bootstrapSql)) {
                             sql.addBatch(ddl);
                         }
                         sql.executeBatch();
@@ -168,6 +165,10 @@ public class BootstrapRDS implements RequestHandler<Map<String, Object>, Object>
                         item.put("Endpoint", AttributeValue.builder().s(dbHost).build());
                         if (tenantId != null && !tenantId.isEmpty()) {
                             item.put("TenantId", AttributeValue.builder().s(tenantId).build());
+                        } else {
+                            // Only unclaimed clusters carry this attribute so they're the
+                            // only items in the sparse Available-index GSI
+                            item.put("Available", AttributeValue.builder().s("true").build());
                         }
                         try {
                             logger.log("Inserting database cluster in hot pool " + clusterId);
@@ -233,10 +234,11 @@ public class BootstrapRDS implements RequestHandler<Map<String, Object>, Object>
                     final String dbMasterUsername = "master";
                     final String dbMasterPassParam = "saas-factory-srvls-wrkshp-owner-pw";
                     if (tenantId != null && !tenantId.isEmpty()) {
-                        final String dbHostParam = tenantId + "_DB_HOST";
-                        final String dbUserParam = tenantId + "_DB_USER";
-                        final String dbPassParam = tenantId + "_DB_PASS";
-                        final String dbNameParam = tenantId + "_DB_NAME";
+                        final String tenantConfigPath = "/saas-factory-srvls-wrkshp/tenant/" + tenantId + "/";
+                        final String dbHostParam = tenantConfigPath + "DB_HOST";
+                        final String dbUserParam = tenantConfigPath + "DB_USER";
+                        final String dbPassParam = tenantConfigPath + "DB_PASS";
+                        final String dbNameParam = tenantConfigPath + "DB_NAME";
                         GetParametersResponse ssmResponse = ssm.getParameters(request -> request
                                 .names(dbMasterPassParam, dbHostParam, dbUserParam, dbPassParam, dbNameParam)
                                 .withDecryption(Boolean.TRUE)
@@ -409,6 +411,34 @@ public class BootstrapRDS implements RequestHandler<Map<String, Object>, Object>
         return null;
     }
 
+    /**
+     * Splits a SQL script on semicolons, leaving the ones inside $$ quoted function bodies alone.
+     *
+     * @param script
+     * @return the statements in script order
+     */
+    static List<String> sqlStatements(InputStream script) {
+        Scanner scanner = new Scanner(script, "UTF-8");
+        scanner.useDelimiter("\\A");
+        String sql = scanner.hasNext() ? scanner.next() : "";
+        List<String> statements = new ArrayList<>();
+        boolean dollarQuoted = false;
+        int start = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.startsWith("$$", i)) {
+                dollarQuoted = !dollarQuoted;
+                i++;
+            } else if (sql.charAt(i) == ';' && !dollarQuoted) {
+                statements.add(sql.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (!sql.substring(start).trim().isEmpty()) {
+            statements.add(sql.substring(start));
+        }
+        return statements;
+    }
+
     /**
      * Send a response to CloudFormation regarding progress in creating resource.
      *
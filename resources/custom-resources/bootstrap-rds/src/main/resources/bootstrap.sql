@@ -66,6 +66,45 @@ CREATE TABLE order_line_item (
 	unit_purchase_price DECIMAL(9, 2) NOT NULL
 );
 
+-- Versions of the cached lists in the lab 2 app. Statement level triggers bump a version
+-- whenever a table the list is built from changes, and a list's version is the sum of its
+-- rows, so the app can check for changes with one small index scan. Each connection bumps
+-- its own slot, so writers don't all queue on one row lock that is held until commit. Rows
+-- are never deleted, so the sum only ever goes up. The seed row is taken from the clock so
+-- a rebuilt database doesn't hand out versions a client may already have cached.
+CREATE TABLE data_version (
+	name VARCHAR(32) NOT NULL,
+	slot INT NOT NULL,
+	version BIGINT NOT NULL DEFAULT 1,
+	CONSTRAINT data_version_pk PRIMARY KEY (name, slot)
+);
+
+INSERT INTO data_version (name, slot, version) VALUES
+	('products', -1, (EXTRACT(EPOCH FROM now()) * 1000)::bigint),
+	('orders', -1, (EXTRACT(EPOCH FROM now()) * 1000)::bigint);
+
+CREATE FUNCTION bump_data_version() RETURNS trigger AS $$
+BEGIN
+	INSERT INTO data_version (name, slot)
+	SELECT unnest(TG_ARGV), pg_backend_pid() % 1024
+	ON CONFLICT (name, slot) DO UPDATE SET version = data_version.version + 1;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER category_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON category
+	FOR EACH STATEMENT EXECUTE PROCEDURE bump_data_version('products', 'orders');
+CREATE TRIGGER product_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON product
+	FOR EACH STATEMENT EXECUTE PROCEDURE bump_data_version('products', 'orders');
+CREATE TRIGGER product_categories_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON product_categories
+	FOR EACH STATEMENT EXECUTE PROCEDURE bump_data_version('products', 'orders');
+CREATE TRIGGER purchaser_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON purchaser
+	FOR EACH STATEMENT EXECUTE PROCEDURE bump_data_version('orders');
+CREATE TRIGGER order_fulfillment_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON order_fulfillment
+	FOR EACH STATEMENT EXECUTE PROCEDURE bump_data_version('orders');
+CREATE TRIGGER order_line_item_data_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON order_line_item
+	FOR EACH STATEMENT EXECUTE PROCEDURE bump_data_version('orders');
+
 -- UI currently blows up if there are no categories, so add some static entries even if we're not
 -- entering fake product or order data
 INSERT INTO category (category) VALUES ('JavaScript'), ('Python'), ('Java'), ('C#'), ('PHP'), ('Swift'), ('Ruby'), ('Golang');
\ No newline at end of file
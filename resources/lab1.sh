@@ -22,8 +22,12 @@ if [ $(basename $PWD) != "resources" ]; then
 	exit 1
 fi
 
+# The functions all depend on lambda-commons, so install it first
+cd lambda-commons
+mvn
+cd ..
 for LAMBDA in $(ls -d */); do
-	if [ $LAMBDA != "custom-resources/" ]; then
+	if [ -f ${LAMBDA}pom.xml ] && [ $LAMBDA != "lambda-commons/" ]; then
 		cd $LAMBDA
 		mvn
 		cd ..
@@ -63,8 +63,12 @@ if [ -z "$WORKSHOP_STACK" ] \
 fi
 
 cd /home/ec2-user/environment/saas-factory-serverless-workshop/resources
+# The functions all depend on lambda-commons, so install it first
+cd lambda-commons
+mvn
+cd ..
 for LAMBDA in $(ls -d */); do
-	if [ $LAMBDA != "custom-resources/" ]; then
+	if [ -f ${LAMBDA}pom.xml ] && [ $LAMBDA != "lambda-commons/" ]; then
 		cd $LAMBDA
 		mvn
 		cd ..
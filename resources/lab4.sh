@@ -107,8 +107,11 @@ fi
 
 # Build and upload the artifacts for Lab 4
 cd /home/ec2-user/environment/saas-factory-serverless-workshop/lab4
-# Build the layer first because it is a dependency in the subsequent POMs
-cd layers/serverless-saas-layer
+# Build the layer first because it is a dependency in the subsequent POMs, and the
+# commons it carries before that
+cd ../resources/lambda-commons
+mvn
+cd ../../lab4/layers/serverless-saas-layer
 mvn
 cd ../../order-service
 mvn
@@ -23,6 +23,7 @@ import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.interfaces.JWTVerifier;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,17 +32,39 @@ import software.amazon.awssdk.regions.Region;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Authorizer implements RequestStreamHandler {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(Authorizer.class);
     private final static ObjectMapper MAPPER = new ObjectMapper();
+    private final static String AWS_REGION = System.getenv("AWS_REGION");
+    // Cognito user pool issuers, https://cognito-idp.<region>.amazonaws.com/<region>_<id>
+    private final static Pattern COGNITO_ISSUER = Pattern.compile("^https://cognito-idp\\.([a-z0-9-]+)\\.amazonaws\\.com/(\\1_[A-Za-z0-9]+)$");
+    // Kept across requests so each pool's JWKS is fetched once, not per request. Bounded because
+    // every tenant has its own pool and the issuer comes from a token we haven't verified yet.
+    private final static NearCache<String, CognitoKeyProvider> KEY_PROVIDERS = new NearCache<>(TimeUnit.HOURS.toMillis(1), 500);
+
+    static {
+        StartupManager.init("Authorizer", Authorizer::prime);
+    }
 
     public void handleRequest(InputStream input, OutputStream output, Context context) {
         // Using a RequestSteamHandler here because there doesn't seem to be a way to get
         // a hold of the internal Jackson ObjectMapper from AWS to adjust it to deal with
         // the uppercase property names in the Policy document
-        TokenAuthorizerRequest event = fromJson(input, TokenAuthorizerRequest.class);
+        Map<String, Object> request = fromJson(input, Map.class);
+        if (WarmupManager.warmup(request)) {
+            return;
+        }
+        TokenAuthorizerRequest event = null;
+        try {
+            event = MAPPER.convertValue(request, TokenAuthorizerRequest.class);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(getFullStackTrace(e));
+        }
         if (null == event) {
             throw new RuntimeException("Can't deserialize input");
         }
@@ -102,8 +125,11 @@ public class Authorizer implements RequestStreamHandler {
 
     protected DecodedJWT verifyToken(TokenAuthorizerRequest request) {
         String userPoolId = getTokenIssuer(request.tokenPayload());
+        if (userPoolId == null) {
+            return null;
+        }
         JWTVerifier verifier = JWT
-                .require(Algorithm.RSA256(new CognitoKeyProvider(userPoolId)))
+                .require(Algorithm.RSA256(KEY_PROVIDERS.get(userPoolId, CognitoKeyProvider::new)))
                 .acceptLeeway(5L) // Allowed seconds of clock skew between token issuer and verifier
                 .build();
         DecodedJWT token = null;
@@ -115,9 +141,31 @@ public class Authorizer implements RequestStreamHandler {
         return token;
     }
 
+    /**
+     * Pulls the user pool id out of the token's issuer. Only issuers that are Cognito user pools
+     * in this Lambda's region are accepted, anything else would have us caching a key provider
+     * and fetching keys for whatever pool the unverified token names.
+     * @param token
+     * @return the user pool id or null if the issuer isn't one of our user pools
+     */
     protected String getTokenIssuer(String token) {
-        String issuer = JWT.decode(token).getClaim("iss").asString();
-        return issuer.substring(issuer.lastIndexOf("/") + 1);
+        String issuer;
+        try {
+            issuer = JWT.decode(token).getClaim("iss").asString();
+        } catch (JWTVerificationException e) {
+            LOGGER.error("Authorizer::getTokenIssuer can't decode token " + e.getMessage());
+            return null;
+        }
+        if (issuer == null) {
+            LOGGER.error("Authorizer::getTokenIssuer token has no issuer");
+            return null;
+        }
+        Matcher matcher = COGNITO_ISSUER.matcher(issuer);
+        if (!matcher.matches() || !matcher.group(1).equals(AWS_REGION)) {
+            LOGGER.error("Authorizer::getTokenIssuer rejecting issuer " + issuer);
+            return null;
+        }
+        return matcher.group(2);
     }
 
     protected String getTenantId(DecodedJWT token) {
@@ -140,6 +188,28 @@ public class Authorizer implements RequestStreamHandler {
         );
         return arn;
     }
+    /**
+     * Run during init so Jackson has introspected the request and policy
+     * types before the first real authorization needs them
+     */
+    private static void prime() {
+        try {
+            Map<String, Object> request = new HashMap<>();
+            request.put("type", "TOKEN");
+            request.put("methodArn", "arn:aws:execute-api:us-east-1:000000000000:warmup/v1/GET/");
+            request.put("authorizationToken", "Bearer warmup");
+            MAPPER.convertValue(request, TokenAuthorizerRequest.class);
+            MAPPER.writeValueAsString(AuthorizerResponse.builder()
+                    .policyDocument(PolicyDocument.builder()
+                            .statement(Statement.builder().effect("Deny").build())
+                            .build())
+                    .context(new HashMap<>())
+                    .build());
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            LOGGER.warn("Authorizer::prime " + e.getMessage());
+        }
+    }
+
     protected String toJson(Object obj) {
         String json = null;
         try {
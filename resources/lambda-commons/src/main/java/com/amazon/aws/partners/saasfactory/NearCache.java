@@ -0,0 +1,132 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Small in-process read-through cache. Entries expire after a fixed time to live, the number
+ * of entries is bounded, and concurrent misses for the same key share a single load instead
+ * of each calling the backing store.
+ */
+public class NearCache<K, V> {
+
+    private final long ttlMillis;
+    private final int maxSize;
+    private final Map<K, CacheEntry<V>> entries = new ConcurrentHashMap<>();
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    public NearCache(long ttlMillis, int maxSize) {
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry != null && !entry.isExpired()) {
+            return entry.value;
+        }
+
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, load);
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            V value = loader.apply(key);
+            // Only keep the value if nobody invalidated this key while we were loading it
+            if (loading.remove(key, load) && value != null) {
+                put(key, value);
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    public void invalidate(K key) {
+        loading.remove(key);
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        loading.clear();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void put(K key, V value) {
+        if (!entries.containsKey(key) && entries.size() >= maxSize) {
+            evict();
+        }
+        entries.put(key, new CacheEntry<>(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    // Drop anything that has expired and if that doesn't free up room, drop
+    // whichever entry is closest to expiring
+    private void evict() {
+        K soonest = null;
+        long soonestExpiry = Long.MAX_VALUE;
+        for (Iterator<Map.Entry<K, CacheEntry<V>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<K, CacheEntry<V>> candidate = it.next();
+            if (candidate.getValue().isExpired()) {
+                it.remove();
+            } else if (candidate.getValue().expiresAt < soonestExpiry) {
+                soonest = candidate.getKey();
+                soonestExpiry = candidate.getValue().expiresAt;
+            }
+        }
+        if (soonest != null && entries.size() >= maxSize) {
+            entries.remove(soonest);
+        }
+    }
+
+    private static final class CacheEntry<V> {
+
+        private final V value;
+        private final long expiresAt;
+
+        private CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
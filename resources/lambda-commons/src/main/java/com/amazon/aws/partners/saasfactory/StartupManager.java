@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.client.builder.SdkClientBuilder;
+import software.amazon.awssdk.regions.Region;
+
+import javax.net.ssl.SSLContext;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.Signature;
+
+/**
+ * Shared cold start handling for the service handlers. Each handler builds its SDK clients,
+ * ObjectMapper and DAL in static fields, passing {@link #REGION} to every client builder so
+ * the SDK doesn't walk its region provider chain, and then calls {@link #init(String, Runnable...)}
+ * from a static block. That work all happens in the Lambda init phase, before the first request.
+ */
+public class StartupManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupManager.class);
+    // Lambda always sets AWS_REGION. Left null elsewhere so the SDK falls back to its provider chain.
+    public static final Region REGION = System.getenv("AWS_REGION") != null ? Region.of(System.getenv("AWS_REGION")) : null;
+    // Only set when running against local stand-ins, like the AppCDS training run in resources/appcds
+    public static final URI ENDPOINT = System.getenv("AWS_ENDPOINT_URL") != null ? URI.create(System.getenv("AWS_ENDPOINT_URL")) : null;
+
+    /**
+     * Points a client builder at {@link #ENDPOINT} when one is configured. Applied with
+     * applyMutation so clients keep their regional endpoint otherwise.
+     * @param builder
+     */
+    public static void endpoint(SdkClientBuilder<?, ?> builder) {
+        if (ENDPOINT != null) {
+            builder.endpointOverride(ENDPOINT);
+        }
+    }
+
+    /**
+     * Primes the TLS and signature verification providers every handler ends up loading, runs the
+     * handler's own primers (Jackson round trips of its model types and the like) and logs how long
+     * the container took to get here.
+     * @param handler name used in the timing report
+     * @param primers best effort warm up steps, failures are logged and ignored
+     */
+    public static void init(String handler, Runnable... primers) {
+        long startTimeMillis = System.currentTimeMillis();
+        primeCrypto();
+        for (Runnable primer : primers) {
+            try {
+                primer.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("StartupManager::init " + handler + " priming failed " + e.getMessage());
+            }
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        LOGGER.info("StartupManager::init " + handler + " exec " + totalTimeMillis
+                + " uptime " + uptimeMillis
+                + " type " + System.getenv().getOrDefault("AWS_LAMBDA_INITIALIZATION_TYPE", "on-demand"));
+    }
+
+    // Loading the JCE providers and the default SSL context is a large part of the first
+    // HTTPS call and the first token verification
+    private static void primeCrypto() {
+        try {
+            SSLContext.getDefault();
+            KeyFactory.getInstance("RSA");
+            Signature.getInstance("SHA256withRSA");
+            MessageDigest.getInstance("SHA-256").digest(new byte[0]);
+        } catch (GeneralSecurityException e) {
+            LOGGER.warn("StartupManager::primeCrypto " + e.getMessage());
+        }
+    }
+}
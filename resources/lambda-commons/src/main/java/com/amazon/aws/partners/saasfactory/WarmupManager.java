@@ -0,0 +1,98 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Recognises warmup pings from the LambdaWarmer before a handler does any real work,
+ * without parsing the request body. A ping is either
+ * <ul>
+ *     <li>a direct invocation with a top level "source": "warmup"</li>
+ *     <li>an API Gateway request with a source=warmup query parameter</li>
+ * </ul>
+ * Headers and bodies are left alone, a real client sending either shouldn't be able to
+ * turn its request into a ping by accident. When the warmer is warming several containers
+ * of a function at once it adds the number it is sending as "concurrency", next to
+ * "source" or as a query parameter.
+ */
+public class WarmupManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmupManager.class);
+    private static final String WARMUP = "warmup";
+    // Long enough for the rest of a concurrent batch of pings to arrive while this one still
+    // has its container busy
+    private static final long HOLD_MILLIS = 150;
+
+    /**
+     * Answers the event if it is a warmup ping. The primers run on every ping so that the
+     * clients, connections and caches they touch are still warm when real requests arrive.
+     * A ping that is one of a concurrent batch holds its container for HOLD_MILLIS, otherwise
+     * the first container to finish would pick up the next ping and the others would never start.
+     * @param event
+     * @param primers best effort warm up steps, failures are logged and ignored
+     * @return true if the event was a warmup ping and the handler should return straight away
+     */
+    public static boolean warmup(Map<String, Object> event, Runnable... primers) {
+        if (!isWarmup(event)) {
+            return false;
+        }
+        LOGGER.info("Warming up");
+        for (Runnable primer : primers) {
+            try {
+                primer.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("WarmupManager::warmup priming failed " + e.getMessage());
+            }
+        }
+        if (concurrency(event) > 1) {
+            try {
+                Thread.sleep(HOLD_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return true;
+    }
+
+    public static boolean isWarmup(Map<String, Object> event) {
+        if (event == null) {
+            return false;
+        }
+        if (WARMUP.equals(event.get("source"))) {
+            return true;
+        }
+        Object queryParams = event.get("queryStringParameters");
+        return queryParams instanceof Map && WARMUP.equals(((Map<?, ?>) queryParams).get("source"));
+    }
+
+    private static int concurrency(Map<String, Object> event) {
+        Object concurrency = event.get("concurrency");
+        Object queryParams = event.get("queryStringParameters");
+        if (concurrency == null && queryParams instanceof Map) {
+            concurrency = ((Map<?, ?>) queryParams).get("concurrency");
+        }
+        try {
+            return concurrency != null ? Integer.parseInt(concurrency.toString()) : 1;
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NearCacheTest {
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        NearCache<String, String> cache = new NearCache<>(TimeUnit.MINUTES.toMillis(1), 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> cache.get("tenant", key -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "metadata";
+                })));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("metadata", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testExpiredAndInvalidatedEntriesReload() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        NearCache<String, Integer> cache = new NearCache<>(50, 10);
+        assertEquals(Integer.valueOf(1), cache.get("tenant", key -> loads.incrementAndGet()));
+        assertEquals(Integer.valueOf(1), cache.get("tenant", key -> loads.incrementAndGet()));
+        cache.invalidate("tenant");
+        assertEquals(Integer.valueOf(2), cache.get("tenant", key -> loads.incrementAndGet()));
+        Thread.sleep(100);
+        assertEquals(Integer.valueOf(3), cache.get("tenant", key -> loads.incrementAndGet()));
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        NearCache<Integer, Integer> cache = new NearCache<>(TimeUnit.MINUTES.toMillis(1), 3);
+        for (int i = 0; i < 10; i++) {
+            cache.get(i, key -> key);
+        }
+        assertEquals(3, cache.size());
+    }
+}
@@ -18,14 +18,14 @@ package com.amazon.aws.partners.saasfactory;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,112 +37,231 @@ import software.amazon.awssdk.services.apigateway.ApiGatewayClient;
 import software.amazon.awssdk.services.apigateway.model.*;
 import software.amazon.awssdk.services.lambda.LambdaAsyncClient;
 import software.amazon.awssdk.services.lambda.model.InvocationType;
-import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+import software.amazon.awssdk.services.lambda.model.LogType;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.*;
 
-public class LambdaWarmer implements RequestHandler<Map<String, Object>, Object> {
+/**
+ * Keeps functions warm by invoking each target with the requested number of concurrent
+ * invocations, so that many containers stay warm rather than just one. The input is either
+ * <pre>
+ * {"Endpoint": "https://...", "Targets": [
+ *     {"Function": "arn:aws:lambda:...", "Concurrency": 3},
+ *     {"Method": "POST", "Path": "/auth", "Concurrency": 2}]}
+ * </pre>
+ * or the older {"Endpoint": "...", "Warmup": ["arn:aws:lambda:...", ...]} form, where every
+ * function gets WARMUP_CONCURRENCY invocations and the API Gateway paths we've always
+ * warmed are called once each. At most WARMUP_MAX_IN_FLIGHT requests are outstanding at
+ * any time across all targets. Pings sent with a concurrency above one carry it, so the
+ * target holds each of them briefly and they can't all be answered by the same container.
+ */
+public class LambdaWarmer implements RequestHandler<Map<String, Object>, List<WarmupResult>> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LambdaWarmer.class);
+	// Handlers recognise a top level source of warmup on a direct invoke and a source=warmup
+	// query parameter through API Gateway, without having to parse a request body
+	private static final String WARMUP_PAYLOAD = "{\"source\": \"warmup\"}";
+	private static final String CONCURRENT_WARMUP_PAYLOAD = "{\"source\": \"warmup\", \"concurrency\": %d}";
+	// Time left at the end of the run to report before Lambda times us out
+	private static final long REPORT_MILLIS = 5000;
+	private static final int DEFAULT_CONCURRENCY = Integer.parseInt(System.getenv().getOrDefault("WARMUP_CONCURRENCY", "1"));
+	private static final int MAX_IN_FLIGHT = Integer.parseInt(System.getenv().getOrDefault("WARMUP_MAX_IN_FLIGHT", "50"));
+	private static final int HTTP_TIMEOUT_MILLIS = 10000;
+	// Lambda reports an Init Duration on the REPORT line only when the invocation started a new container
+	private static final String COLD_START_MARKER = "Init Duration";
 	private LambdaAsyncClient lambda;
 	private ApiGatewayClient apigw;
+	private CloseableHttpClient apiGateway;
+	private ExecutorService httpExecutor;
 
 	public LambdaWarmer() {
 		this.lambda = LambdaAsyncClient.builder()
-				.httpClientBuilder(NettyNioAsyncHttpClient.builder())
+				.httpClientBuilder(NettyNioAsyncHttpClient.builder().maxConcurrency(MAX_IN_FLIGHT))
 				.credentialsProvider(EnvironmentVariableCredentialsProvider.create())
 				.build();
 		this.apigw = ApiGatewayClient.builder()
 				.httpClientBuilder(UrlConnectionHttpClient.builder())
 				.credentialsProvider(EnvironmentVariableCredentialsProvider.create())
 				.build();
+
+		// One pooled client for the life of the container instead of a new one per run
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(MAX_IN_FLIGHT);
+		connectionManager.setDefaultMaxPerRoute(MAX_IN_FLIGHT);
+		this.apiGateway = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(HTTP_TIMEOUT_MILLIS)
+						.setSocketTimeout(HTTP_TIMEOUT_MILLIS)
+						.build())
+				.build();
+		this.httpExecutor = Executors.newFixedThreadPool(MAX_IN_FLIGHT, runnable -> {
+			Thread thread = new Thread(runnable, "warmup");
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
-	
+
 	@Override
-	public Object handleRequest(Map<String, Object> input, Context context) {
+	public List<WarmupResult> handleRequest(Map<String, Object> input, Context context) {
+		long startTimeMillis = System.currentTimeMillis();
 		String apiGatewayEndpoint = (String) input.get("Endpoint");
-		List<String> functions = (List<String>) input.get("Warmup");
-//		if (functions != null && !functions.isEmpty()) {
-//			List<CompletableFuture<InvokeResponse>> requests = new ArrayList<>();
-//			for (String function : functions) {
-//				LOGGER.info("Warming up " + function);
-//				CompletableFuture<InvokeResponse> response = lambda.invoke(request -> request
-//						.functionName(function)
-//						.invocationType(InvocationType.EVENT)
-//						.payload(SdkBytes.fromUtf8String("{\"source\": \"warmup\"}"))
-//				);
-//				requests.add(response);
-//			}
-//			CompletableFuture.allOf(requests.toArray(new CompletableFuture[requests.size()])).join();
-//		}
+		List<WarmupTarget> targets = targets(input);
 
-		// API Gateway seems inconsistent when it comes to using warm, available Lambda functions
-		// even though we're not using X-Ray... So, we'll brute force the warm up with a call through
-		// the gateway
-		CloseableHttpClient apiGateway = HttpClients.createDefault();
+		long deadlineMillis = startTimeMillis + (context != null ? context.getRemainingTimeInMillis() : TimeUnit.MINUTES.toMillis(1)) - REPORT_MILLIS;
+		Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+		List<WarmupResult> results = new ArrayList<>();
+		List<CompletableFuture<Void>> requests = new ArrayList<>();
 		try {
-			URIBuilder nextAvailableDatabaseGet = new URIBuilder(apiGatewayEndpoint + "/tenants/pool/database");
-			nextAvailableDatabaseGet.setParameter("source", "warmup");
-
-			HttpGet nextAvailableDatabaseCall = new HttpGet(nextAvailableDatabaseGet.build());
-			nextAvailableDatabaseCall.setHeader("Accept", "application/json");
-			nextAvailableDatabaseCall.setHeader("Content-Type", "application/json");
-
-			LOGGER.info("Warming up " + nextAvailableDatabaseCall.getURI().toString());
-			CloseableHttpResponse nextAvailableDatabaseResponse = apiGateway.execute(nextAvailableDatabaseCall);
-			EntityUtils.consume(nextAvailableDatabaseResponse.getEntity());
-
-			HttpPost createTenantCall = new HttpPost(apiGatewayEndpoint + "/tenants");
-			createTenantCall.setHeader("Accept", "application/json");
-			createTenantCall.setHeader("Content-Type", "application/json");
-			String warmup = "{\"source\": \"warmup\"}";
-			StringEntity json = new StringEntity(warmup);
-			createTenantCall.setEntity(json);
-
-			LOGGER.info("Warming up " + createTenantCall.getURI().toString());
-			CloseableHttpResponse createTenantResponse = apiGateway.execute(createTenantCall);
-			EntityUtils.consume(createTenantResponse.getEntity());
-
-			HttpPut updateTenantUserPoolCall = new HttpPut(apiGatewayEndpoint + "/tenants/00000000-0000-0000-0000-000000000000/userpool");
-			updateTenantUserPoolCall.setHeader("Accept", "application/json");
-			updateTenantUserPoolCall.setHeader("Content-Type", "application/json");
-			updateTenantUserPoolCall.setEntity(json);
-
-			LOGGER.info("Warming up " + updateTenantUserPoolCall.getURI().toString());
-			CloseableHttpResponse updateTenantUserPoolResponse = apiGateway.execute(updateTenantUserPoolCall);
-			EntityUtils.consume(updateTenantUserPoolResponse.getEntity());
+			sending:
+			for (WarmupTarget target : targets) {
+				LOGGER.info("Warming up " + target + " x " + target.getConcurrency());
+				WarmupResult result = new WarmupResult(target);
+				results.add(result);
+				for (int i = 0; i < target.getConcurrency(); i++) {
+					// A target that hangs would otherwise keep us waiting for a permit until Lambda kills us
+					if (!inFlight.tryAcquire(Math.max(deadlineMillis - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS)) {
+						LOGGER.error("LambdaWarmer::handleRequest out of time waiting to warm " + target);
+						break sending;
+					}
+					long invokeStartMillis = System.currentTimeMillis();
+					CompletableFuture<Outcome> request;
+					try {
+						request = target.isFunction() ? invoke(target) : call(apiGatewayEndpoint, target);
+					} catch (RuntimeException e) {
+						request = new CompletableFuture<>();
+						request.completeExceptionally(e);
+					}
+					requests.add(request.handle((outcome, error) -> {
+						inFlight.release();
+						if (error != null) {
+							LOGGER.error("Warming up " + target + " failed " + error.getMessage());
+							result.record(false, false, System.currentTimeMillis() - invokeStartMillis);
+						} else {
+							result.record(outcome.success, outcome.coldStart, System.currentTimeMillis() - invokeStartMillis);
+						}
+						return null;
+					}));
+				}
+			}
+			// Leave ourselves a little time to report before Lambda times out
+			long waitMillis = deadlineMillis - System.currentTimeMillis();
+			CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).get(Math.max(waitMillis, 0), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			LOGGER.error("LambdaWarmer::handleRequest did not finish " + e.getMessage());
+		}
 
-			HttpPost registrationCall = new HttpPost(apiGatewayEndpoint + "/registration");
-			registrationCall.setHeader("Accept", "application/json");
-			registrationCall.setHeader("Content-Type", "application/json");
-			registrationCall.setEntity(json);
+		for (WarmupResult result : results) {
+			LOGGER.info("LambdaWarmer::handleRequest " + result);
+		}
+		long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+		LOGGER.info("LambdaWarmer::handleRequest exec " + totalTimeMillis);
+		return results;
+	}
 
-			LOGGER.info("Warming up " + registrationCall.getURI().toString());
-			CloseableHttpResponse registrationResponse = apiGateway.execute(registrationCall);
-			EntityUtils.consume(registrationResponse.getEntity());
+	protected List<WarmupTarget> targets(Map<String, Object> input) {
+		List<WarmupTarget> targets = new ArrayList<>();
+		List<Map<String, Object>> configured = (List<Map<String, Object>>) input.get("Targets");
+		if (configured != null) {
+			for (Map<String, Object> target : configured) {
+				int concurrency = target.containsKey("Concurrency") ? ((Number) target.get("Concurrency")).intValue() : DEFAULT_CONCURRENCY;
+				if (target.containsKey("Function")) {
+					targets.add(WarmupTarget.function((String) target.get("Function"), concurrency));
+				} else if (target.containsKey("Path")) {
+					String method = target.containsKey("Method") ? (String) target.get("Method") : "GET";
+					targets.add(WarmupTarget.path(method, (String) target.get("Path"), concurrency));
+				}
+			}
+		} else {
+			List<String> functions = (List<String>) input.get("Warmup");
+			if (functions != null) {
+				for (String function : functions) {
+					targets.add(WarmupTarget.function(function, DEFAULT_CONCURRENCY));
+				}
+			}
+			// API Gateway seems inconsistent when it comes to using warm, available Lambda functions
+			// even though we're not using X-Ray... So, we'll also warm up through the gateway
+			if (input.get("Endpoint") != null) {
+				targets.add(WarmupTarget.path("GET", "/tenants/pool/database", 1));
+				targets.add(WarmupTarget.path("POST", "/tenants", 1));
+				targets.add(WarmupTarget.path("PUT", "/tenants/00000000-0000-0000-0000-000000000000/userpool", 1));
+				targets.add(WarmupTarget.path("POST", "/registration", 1));
+				targets.add(WarmupTarget.path("POST", "/auth", 1));
+			}
+		}
+		return targets;
+	}
 
-			HttpPost authCall = new HttpPost(apiGatewayEndpoint + "/auth");
-			authCall.setHeader("Accept", "application/json");
-			authCall.setHeader("Content-Type", "application/json");
-			authCall.setEntity(json);
+	/**
+	 * Invokes the function synchronously so that concurrent invocations each hold a container
+	 * @return whether the invocation succeeded and whether it was a cold start
+	 */
+	private CompletableFuture<Outcome> invoke(WarmupTarget target) {
+		return lambda.invoke(request -> request
+				.functionName(target.getFunction())
+				.invocationType(InvocationType.REQUEST_RESPONSE)
+				.logType(LogType.TAIL)
+				.payload(SdkBytes.fromUtf8String(target.getConcurrency() > 1
+						? String.format(CONCURRENT_WARMUP_PAYLOAD, target.getConcurrency())
+						: WARMUP_PAYLOAD))
+		).thenApply(response -> {
+			boolean coldStart = response.logResult() != null && new String(
+					Base64.getDecoder().decode(response.logResult()), StandardCharsets.UTF_8
+			).contains(COLD_START_MARKER);
+			return new Outcome(response.functionError() == null, coldStart);
+		});
+	}
 
-			LOGGER.info("Warming up " + authCall.getURI().toString());
-			CloseableHttpResponse authResponse = apiGateway.execute(authCall);
-			EntityUtils.consume(authResponse.getEntity());
-		} catch (URISyntaxException | IOException ioe) {
-		} finally {
+	/**
+	 * Calls the path through API Gateway. We can't see cold starts from here.
+	 * @return whether the call succeeded and false for the cold start
+	 */
+	private CompletableFuture<Outcome> call(String apiGatewayEndpoint, WarmupTarget target) {
+		if (apiGatewayEndpoint == null) {
+			throw new IllegalArgumentException("No Endpoint to call " + target);
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			HttpUriRequest request;
 			try {
-				apiGateway.close();
+				// Built on the URI, RequestBuilder would send the parameters of a POST as a form body
+				URIBuilder uri = new URIBuilder(apiGatewayEndpoint + target.getPath())
+						.addParameter("source", "warmup");
+				if (target.getConcurrency() > 1) {
+					uri.addParameter("concurrency", String.valueOf(target.getConcurrency()));
+				}
+				request = RequestBuilder.create(target.getMethod())
+						.setUri(uri.build())
+						.setHeader("Accept", "application/json")
+						.build();
+			} catch (URISyntaxException e) {
+				throw new CompletionException(e);
+			}
+			try (CloseableHttpResponse response = apiGateway.execute(request)) {
+				EntityUtils.consume(response.getEntity());
+				return new Outcome(response.getStatusLine().getStatusCode() < 500, false);
 			} catch (IOException e) {
+				throw new CompletionException(e);
 			}
-		}
+		}, httpExecutor);
+	}
+
+	private static class Outcome {
+		private final boolean success;
+		private final boolean coldStart;
 
-		return null;
+		private Outcome(boolean success, boolean coldStart) {
+			this.success = success;
+			this.coldStart = coldStart;
+		}
 	}
 
 //	public void foo(Map<String, Object> input, Context context) {
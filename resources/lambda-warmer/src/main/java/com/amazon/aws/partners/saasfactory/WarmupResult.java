@@ -0,0 +1,84 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+/**
+ * Outcome of warming one {@link WarmupTarget}. Cold starts can only be seen for function
+ * targets, from the Init Duration in the invocation's log tail.
+ */
+public class WarmupResult {
+
+	private final String target;
+	private int invocations;
+	private int succeeded;
+	private int failed;
+	private int coldStarts;
+	private long totalLatencyMillis;
+	private long maxLatencyMillis;
+
+	public WarmupResult(WarmupTarget target) {
+		this.target = target.toString();
+	}
+
+	public synchronized void record(boolean success, boolean coldStart, long latencyMillis) {
+		invocations++;
+		if (success) {
+			succeeded++;
+		} else {
+			failed++;
+		}
+		if (coldStart) {
+			coldStarts++;
+		}
+		totalLatencyMillis += latencyMillis;
+		maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+	}
+
+	public String getTarget() {
+		return target;
+	}
+
+	public synchronized int getInvocations() {
+		return invocations;
+	}
+
+	public synchronized int getSucceeded() {
+		return succeeded;
+	}
+
+	public synchronized int getFailed() {
+		return failed;
+	}
+
+	public synchronized int getColdStarts() {
+		return coldStarts;
+	}
+
+	public synchronized long getAverageLatencyMillis() {
+		return invocations > 0 ? totalLatencyMillis / invocations : 0;
+	}
+
+	public synchronized long getMaxLatencyMillis() {
+		return maxLatencyMillis;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return target + " invocations " + invocations + " succeeded " + succeeded + " failed " + failed
+				+ " cold starts " + coldStarts + " avg " + getAverageLatencyMillis() + " ms max " + maxLatencyMillis + " ms";
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+/**
+ * One thing to keep warm, either a Lambda function invoked directly or a path called
+ * through API Gateway, and how many concurrent containers to keep warm for it.
+ */
+public class WarmupTarget {
+
+	private String function;
+	private String method;
+	private String path;
+	private int concurrency;
+
+	public static WarmupTarget function(String function, int concurrency) {
+		WarmupTarget target = new WarmupTarget();
+		target.function = function;
+		target.concurrency = concurrency;
+		return target;
+	}
+
+	public static WarmupTarget path(String method, String path, int concurrency) {
+		WarmupTarget target = new WarmupTarget();
+		target.method = method;
+		target.path = path;
+		target.concurrency = concurrency;
+		return target;
+	}
+
+	public boolean isFunction() {
+		return function != null;
+	}
+
+	public String getFunction() {
+		return function;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	@Override
+	public String toString() {
+		return isFunction() ? function : method + " " + path;
+	}
+}
@@ -16,6 +16,8 @@
  */
 package com.amazon.aws.partners.saasfactory;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class Registration {
 
     private String firstName;
@@ -38,6 +40,7 @@ public class Registration {
         this.password = password;
     }
 
+    @JsonIgnore
     public boolean isEmpty() {
         return (firstName == null || firstName.isEmpty()) && (lastName == null || lastName.isEmpty()) &&
                 (email == null || email.isEmpty()) && (company == null || company.isEmpty()) &&
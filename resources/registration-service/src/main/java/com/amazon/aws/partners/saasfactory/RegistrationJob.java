@@ -0,0 +1,129 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Progress of one onboarding run. Each step records its status and the values it produced
+ * (cluster endpoint, tenant id, user pool...) so a retried run can skip the steps that
+ * already completed and pick up their results instead of repeating them.
+ */
+public class RegistrationJob {
+
+    public final static String QUEUED = "QUEUED";
+    public final static String RUNNING = "RUNNING";
+    public final static String COMPLETED = "COMPLETED";
+    public final static String FAILED = "FAILED";
+
+    private String jobId;
+    private String status;
+    private String error;
+    private int attempts;
+    private Map<String, String> steps = new ConcurrentHashMap<>();
+    private Map<String, String> outputs = new ConcurrentHashMap<>();
+
+    public RegistrationJob() {
+        this(null, null);
+    }
+
+    public RegistrationJob(String jobId, String status) {
+        this.jobId = jobId;
+        this.status = status;
+    }
+
+    /**
+     * @return true if this job's progress is saved so it can be polled and resumed
+     */
+    @JsonIgnore
+    public boolean isTracked() {
+        return jobId != null;
+    }
+
+    @JsonIgnore
+    public boolean isStepCompleted(String step) {
+        return COMPLETED.equals(steps.get(step));
+    }
+
+    public String output(String key) {
+        return outputs.get(key);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * @return how many times the registration worker has started this job
+     */
+    @JsonIgnore
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Map<String, String> getSteps() {
+        return steps;
+    }
+
+    public void setSteps(Map<String, String> steps) {
+        this.steps = new ConcurrentHashMap<>(steps);
+    }
+
+    @JsonIgnore
+    public Map<String, String> getOutputs() {
+        return outputs;
+    }
+
+    public void setOutputs(Map<String, String> outputs) {
+        this.outputs = new ConcurrentHashMap<>(outputs);
+    }
+
+    public String getTenantId() {
+        return outputs.get("TenantId");
+    }
+
+    public String getStackName() {
+        return outputs.get("StackName");
+    }
+}
@@ -24,21 +24,31 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.services.cloudformation.CloudFormationClient;
+import software.amazon.awssdk.services.cloudformation.model.AlreadyExistsException;
 import software.amazon.awssdk.services.cloudformation.model.CreateStackResponse;
 import software.amazon.awssdk.services.cloudformation.model.Parameter;
 import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.*;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
-import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
 import software.amazon.awssdk.services.elasticloadbalancingv2.ElasticLoadBalancingV2Client;
 import software.amazon.awssdk.services.elasticloadbalancingv2.model.DescribeRulesResponse;
+import software.amazon.awssdk.services.elasticloadbalancingv2.model.Rule;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvocationType;
 import software.amazon.awssdk.services.ssm.SsmClient;
 import software.amazon.awssdk.services.ssm.model.GetParametersResponse;
+import software.amazon.awssdk.services.ssm.model.ParameterTier;
 import software.amazon.awssdk.services.ssm.model.ParameterType;
 import software.amazon.awssdk.services.ssm.model.PutParameterResponse;
 import software.amazon.awssdk.utils.IoUtils;
@@ -47,8 +57,16 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -57,6 +75,28 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
     private final static Logger LOGGER = LoggerFactory.getLogger(RegistrationService.class);
     private final static ObjectMapper MAPPER = new ObjectMapper();
     private final static String ONBOARDING_TEMPLATE = "onboard-tenant.template";
+    private final static String USER_DIRECTORY_TABLE = "saas-factory-srvls-wrkshp-user-directory";
+    private final static String RDS_CLUSTERS_TABLE = "saas-factory-srvls-wrkshp-rds-clusters";
+    private final static String RDS_CLUSTERS_AVAILABLE_INDEX = "Available-index";
+    private final static String RDS_CLUSTERS_TENANT_INDEX = "TenantId-index";
+    private final static int CLAIM_DATABASE_ATTEMPTS = 5;
+    private final static int CLAIM_DATABASE_CANDIDATES = 10;
+    private final static int CLAIM_USER_POOL_ATTEMPTS = 3;
+    private final static int CLAIM_USER_POOL_CANDIDATES = 10;
+    private final static String ALB_RULE_PRIORITIES_TABLE = "saas-factory-srvls-wrkshp-alb-rule-priorities";
+    // Listener rule priorities start at 1, so this key never clashes with a real priority
+    private final static String PRIORITY_COUNTER_KEY = "0";
+    private final static int ONBOARDING_THREADS = 6;
+    private final static int PARAMETER_THREADS = 4;
+    private final static String TENANT_CONFIG_ROOT = "/saas-factory-srvls-wrkshp/tenant/";
+    private final static String REGISTRATION_PASSWORD_ROOT = "/saas-factory-srvls-wrkshp/registration/";
+    // Lambda drops queued registrations after an hour, and each of the worker's attempts
+    // can run for 10 minutes, so by then nothing can still need the password
+    private final static Duration REGISTRATION_PASSWORD_TTL = Duration.ofHours(2);
+    // The worker's first attempt plus the 2 retries its EventInvokeConfig allows
+    private final static int REGISTRATION_WORKER_ATTEMPTS = 3;
+    private final static String REGISTRATION_JOBS_TABLE = "saas-factory-srvls-wrkshp-registration-jobs";
+    private final static Duration REGISTRATION_JOB_RETENTION = Duration.ofDays(7);
     private final static Map<String, String> CORS = Stream
             .of(new AbstractMap.SimpleEntry<String, String>("Access-Control-Allow-Origin", "*"))
             .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
@@ -65,6 +105,20 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
     private ElasticLoadBalancingV2Client elbv2;
     private CognitoIdentityProviderClient cognito;
     private DynamoDbClient ddb;
+    private LambdaClient lambda;
+    private String registrationWorker = System.getenv("REGISTRATION_WORKER");
+    private final ExecutorService onboardingExecutor = Executors.newFixedThreadPool(ONBOARDING_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "onboarding");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Separate from the onboarding executor so the parameter writes can't be starved by the
+    // onboarding step that is waiting on them
+    private final ExecutorService parameterExecutor = Executors.newFixedThreadPool(PARAMETER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "parameters");
+        thread.setDaemon(true);
+        return thread;
+    });
     private String apiGatewayEndpoint;
     private String workshopBucket;
     private String keyPairName;
@@ -83,6 +137,8 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
         this.ssm = SsmClient.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
 
         GetParametersResponse ssmBatch1 = this.ssm.getParameters(request -> request
@@ -169,22 +225,47 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
         this.elbv2 = ElasticLoadBalancingV2Client.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
 
         this.cfn = CloudFormationClient.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
 
         this.cognito = CognitoIdentityProviderClient.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
 
         this.ddb = DynamoDbClient.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
+
+        this.lambda = LambdaClient.builder()
+                .httpClientBuilder(UrlConnectionHttpClient.builder())
+                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
+                .build();
+
+        // Lambda creates the handler once per container, during init
+        StartupManager.init("RegistrationService", RegistrationService::prime);
+    }
+
+    // For testing the claim logic against fake clients
+    RegistrationService(DynamoDbClient ddb, CognitoIdentityProviderClient cognito, String albListenerArn) {
+        this.ddb = ddb;
+        this.cognito = cognito;
+        this.albListenerArn = albListenerArn;
     }
 
     @Override
@@ -193,30 +274,16 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
     }
 
     /**
-     * 1. Call the TenantService to get an unclaimed RDS cluster from the hot pool
-     * 2. Call the TenantService to create a new tenant record
-     * 3. Update the RDS cluster to add the new application user and password (todo)
-     * 4. Save the database connection properties to parameter store so the app servers
-     *    for this tenant can configure themselves at runtime
-     * 5. Trigger CloudFormation to run the onboarding stack for this tenant
+     * Onboards a new tenant from the registration in the request body
+     * @see #onboard(Registration)
      * @param event
      * @param context
      * @return
      */
     public APIGatewayProxyResponseEvent register(Map<String, Object> event, Context context) {
         //logRequestEvent(event);
-        if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-        } else if (event.containsKey("body")) {
-            try {
-                Map<String, String> requestBody = MAPPER.readValue((String) event.get("body"), HashMap.class);
-                if (requestBody != null && "warmup".equals(requestBody.get("source"))) {
-                    LOGGER.info("Warming up");
-                    return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-                }
-            } catch (IOException e) {
-            }
         }
 
         long startTimeMillis = System.currentTimeMillis();
@@ -225,46 +292,9 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
         Map<String, String> error = new HashMap<>();
 
         Registration registration = registrationFromJson((String) event.get("body"));
-        Tenant tenant = null;
         if (registration != null && !registration.isEmpty()) {
             try {
-                // Not thread safe - do not copy this
-
-                // 1. Get an available RDS cluster
-//                String availableDatabaseResponse = nextAvailableDatabase();
-//                Map<String, String> availableDatabase = MAPPER.readValue(availableDatabaseResponse, Map.class);
-                Map<String, String> availableDatabase = nextAvailableDatabase();
-                if (availableDatabase == null || availableDatabase.isEmpty()) {
-                    throw new RuntimeException("Cannot register new tenant. Hot pool of RDS clusters has been depleted.");
-                }
-                String tenantDatabase = availableDatabase.get("Endpoint");
-                LOGGER.info("RegistrationService::register next available database = " + tenantDatabase);
-
-                // 2. Create the new tenant record, generating the UUID
-                tenant = createTenant(registration.getCompany(), registration.getPlan(), tenantDatabase);
-                LOGGER.info("RegistrationService::register created tenant " + tenant.getId().toString());
-
-                // 3. Create a Cognito User Pool for this tenant now that we have its
-                // unique id, and then create a new user in that pool from the registration
-                String userPoolId = createUserPool(tenant, registration);
-                LOGGER.info("RegistrationService::register created user pool " + userPoolId);
-                // Skip this for now since we don't use it and can't seem to avoid the cold start
-                // tenant = updateTenantUserPool(tenant, userPoolId);
-                tenant.setUserPool(userPoolId);
-                createUser(tenant, registration);
-                LOGGER.info("RegistrationService::register created user " + registration.getFirstName() + " " + registration.getLastName());
-
-                // 4. Save this tenant's environment variables to parameter store
-                storeParameters(tenant);
-
-                // 5. Now provision this tenant's silo infrastructure (async)
-                String stackName = createStack(tenant);
-
-                Map<String, String> result = Stream.of(
-                        new AbstractMap.SimpleEntry<>("TenantId", tenant.getId().toString()),
-                        new AbstractMap.SimpleEntry<>("StackName", stackName))
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
+                Map<String, String> result = onboard(registration);
                 response = new APIGatewayProxyResponseEvent()
                         .withStatusCode(200)
                         .withBody(MAPPER.writeValueAsString(result))
@@ -287,6 +317,431 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
         return response;
     }
 
+    /**
+     * Queues a registration and returns its job id straight away. The onboarding steps run
+     * in the registration worker, and clients poll {@link #registrationStatus} for progress.
+     * @param event
+     * @param context
+     * @return
+     */
+    public APIGatewayProxyResponseEvent registerAsync(Map<String, Object> event, Context context) {
+        if (WarmupManager.warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("RegistrationService::registerAsync");
+        APIGatewayProxyResponseEvent response = null;
+        Map<String, String> error = new HashMap<>();
+
+        Registration registration = registrationFromJson((String) event.get("body"));
+        if (registration != null && !registration.isEmpty()) {
+            RegistrationJob job = new RegistrationJob(UUID.randomUUID().toString(), RegistrationJob.QUEUED);
+            try {
+                saveRegistrationJob(job);
+
+                // Async invocation payloads are kept by Lambda until the worker has run, so
+                // the password waits in parameter store, encrypted, instead of riding along
+                saveRegistrationPassword(job, registration.getPassword());
+                Registration workItemRegistration = new Registration(registration.getFirstName(), registration.getLastName(),
+                        registration.getEmail(), registration.getCompany(), registration.getPlan(), null);
+                Map<String, Object> workItem = new HashMap<>();
+                workItem.put("jobId", job.getJobId());
+                workItem.put("registration", workItemRegistration);
+                byte[] payload = MAPPER.writeValueAsBytes(workItem);
+                lambda.invoke(request -> request
+                        .functionName(registrationWorker)
+                        .invocationType(InvocationType.EVENT)
+                        .payload(SdkBytes.fromByteArray(payload))
+                );
+                LOGGER.info("RegistrationService::registerAsync queued job " + job.getJobId());
+
+                response = new APIGatewayProxyResponseEvent()
+                        .withStatusCode(202)
+                        .withBody(toJson(job))
+                        .withHeaders(CORS);
+            } catch (Exception e) {
+                LOGGER.error(getFullStackTrace(e));
+                // Nothing is going to run this job, so don't leave clients polling a QUEUED job
+                // forever or its password sitting in parameter store
+                deleteRegistrationPassword(job);
+                try {
+                    updateRegistrationJobStatus(job, RegistrationJob.FAILED, e.getMessage());
+                } catch (RuntimeException notSaved) {
+                    LOGGER.error("RegistrationService::registerAsync could not fail job " + job.getJobId());
+                }
+                error.put("message", e.getMessage());
+                response = new APIGatewayProxyResponseEvent()
+                        .withStatusCode(400)
+                        .withBody(toJson(error));
+            }
+        } else {
+            error.put("message", "request body invalid");
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(400)
+                    .withBody(toJson(error));
+        }
+
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("RegistrationService::registerAsync exec " + totalTimeMillis);
+        return response;
+    }
+
+    /**
+     * Registration worker, invoked asynchronously by {@link #registerAsync}. Lambda retries
+     * failed asynchronous invocations, and because every step's result is saved on the job
+     * a retry only runs the steps that haven't completed yet.
+     * @param event the job id and the registration
+     * @param context
+     * @return the job's final state
+     */
+    public RegistrationJob processRegistration(Map<String, Object> event, Context context) {
+        if (WarmupManager.warmup(event)) {
+            return null;
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+        String jobId = (String) event.get("jobId");
+        LOGGER.info("RegistrationService::processRegistration " + jobId);
+        Registration registration = MAPPER.convertValue(event.get("registration"), Registration.class);
+        RegistrationJob job = getRegistrationJob(jobId);
+        if (job == null) {
+            throw new RuntimeException("No registration job " + jobId);
+        }
+        if (RegistrationJob.COMPLETED.equals(job.getStatus())) {
+            LOGGER.info("RegistrationService::processRegistration job already completed " + jobId);
+            return job;
+        }
+
+        startRegistrationJobAttempt(job);
+        try {
+            if (!job.isStepCompleted("CreateUser")) {
+                registration.setPassword(getRegistrationPassword(job));
+            }
+            onboard(registration, job);
+            updateRegistrationJobStatus(job, RegistrationJob.COMPLETED, null);
+            deleteRegistrationPassword(job);
+        } catch (RuntimeException e) {
+            // Retries only need the password to create the user, and the last attempt has none
+            if (job.isStepCompleted("CreateUser") || job.getAttempts() >= REGISTRATION_WORKER_ATTEMPTS) {
+                deleteRegistrationPassword(job);
+            }
+            updateRegistrationJobStatus(job, RegistrationJob.FAILED, e.getMessage());
+            throw e;
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("RegistrationService::processRegistration exec " + totalTimeMillis);
+        return job;
+    }
+
+    public APIGatewayProxyResponseEvent registrationStatus(Map<String, Object> event, Context context) {
+        if (WarmupManager.warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+        Map<String, String> params = (Map) event.get("pathParameters");
+        String jobId = params.get("id");
+        LOGGER.info("RegistrationService::registrationStatus " + jobId);
+        APIGatewayProxyResponseEvent response = null;
+        RegistrationJob job = getRegistrationJob(jobId);
+        if (job == null) {
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(404)
+                    .withHeaders(CORS);
+        } else {
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(200)
+                    .withHeaders(CORS)
+                    .withBody(toJson(job));
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("RegistrationService::registrationStatus exec " + totalTimeMillis);
+        return response;
+    }
+
+    protected Map<String, String> onboard(Registration registration) {
+        return onboard(registration, new RegistrationJob());
+    }
+
+    /**
+     * Runs the onboarding steps as a dependency graph so that independent steps overlap.
+     * <pre>
+     * claim RDS cluster --> create tenant --+--> create user pool --+--> create user
+     *                                       |                       +--> tag user pool
+     *                                       +--> store parameters --+--> create stack
+     * reserve rule priority ----------------------------------------+
+     * </pre>
+     * The stack waits for the parameters because the tenant's app servers read them
+     * from parameter store when they start. Steps the job has already completed are
+     * skipped and the outputs they recorded are used instead. A tracked job's tenant id
+     * is its job id, and every step is keyed by it, so a step that did its work but
+     * failed before recording it picks up that work again when it is retried.
+     * @param registration
+     * @param job
+     * @return the new tenant id and the name of its onboarding stack
+     */
+    protected Map<String, String> onboard(Registration registration, RegistrationJob job) {
+        final String tenantId = job.getOutputs().computeIfAbsent("TenantId",
+                id -> job.isTracked() ? job.getJobId() : UUID.randomUUID().toString());
+
+        // 1. Claim an available RDS cluster for the tenant
+        CompletableFuture<Void> database = step(job, "ClaimDatabase", () -> {
+            Map<String, String> availableDatabase = nextAvailableDatabase(tenantId);
+            if (availableDatabase == null || availableDatabase.isEmpty()) {
+                throw new RuntimeException("Cannot register new tenant. Hot pool of RDS clusters has been depleted.");
+            }
+            LOGGER.info("RegistrationService::onboard next available database = " + availableDatabase.get("Endpoint"));
+            return availableDatabase;
+        });
+        // 2. Create the new tenant record
+        CompletableFuture<Void> tenant = database.thenCompose(claimed -> step(job, "CreateTenant", () -> {
+            Tenant created = createTenant(UUID.fromString(tenantId), registration.getCompany(), registration.getPlan(), job.output("Endpoint"));
+            LOGGER.info("RegistrationService::onboard created tenant " + created.getId().toString());
+            return Collections.singletonMap("TenantId", created.getId().toString());
+        }));
+
+        // 3. Create a Cognito User Pool for this tenant now that we have its
+        // unique id, and then create a new user in that pool from the registration
+        CompletableFuture<Void> userPool = tenant.thenCompose(created -> step(job, "CreateUserPool", () -> {
+            UserPoolClientType appClient = createUserPool(tenantFromJob(job, registration), registration);
+            LOGGER.info("RegistrationService::onboard created user pool " + appClient.userPoolId());
+            // Skip this for now since we don't use it and can't seem to avoid the cold start
+            // tenant = updateTenantUserPool(tenant, userPoolId);
+            Map<String, String> outputs = new HashMap<>();
+            outputs.put("UserPoolId", appClient.userPoolId());
+            outputs.put("AppClientId", appClient.clientId());
+            return outputs;
+        }));
+        // Tagging is only bookkeeping, so it runs alongside creating the user instead of before it
+        CompletableFuture<Void> tags = userPool.thenCompose(created -> step(job, "TagUserPool", () -> {
+            tagUserPool(job.output("UserPoolId"), tenantFromJob(job, registration));
+            return Collections.emptyMap();
+        }));
+        CompletableFuture<Void> user = userPool.thenCompose(created -> step(job, "CreateUser", () -> {
+            String username = createUser(tenantFromJob(job, registration), registration, job.output("AppClientId"));
+            LOGGER.info("RegistrationService::onboard created user " + registration.getFirstName() + " " + registration.getLastName());
+            return Collections.singletonMap("Username", username);
+        }));
+
+        // 4. Save this tenant's environment variables to parameter store
+        CompletableFuture<Void> parameters = tenant.thenCompose(created -> step(job, "StoreParameters", () -> {
+            storeParameters(tenantFromJob(job, registration));
+            return Collections.emptyMap();
+        }));
+
+        // 5. Reserve the tenant's listener rule priority. It only needs the tenant id, so
+        // it runs alongside the other steps, and a retried job reuses the one it recorded.
+        // A priority reserved by an attempt that failed before recording it is just skipped
+        CompletableFuture<Void> priority = step(job, "ReservePriority", () ->
+                Collections.singletonMap("AlbRulePriority", reserveRoutingRulePriority().toString())
+        );
+
+        // 6. Now provision this tenant's silo infrastructure (async)
+        CompletableFuture<Void> stack = CompletableFuture.allOf(parameters, priority).thenCompose(ready -> step(job, "CreateStack", () -> {
+            Tenant created = tenantFromJob(job, registration);
+            String stackName;
+            try {
+                stackName = createStack(created, Integer.valueOf(job.output("AlbRulePriority")));
+            } catch (AlreadyExistsException e) {
+                // A retried job that created the stack but didn't get to record it
+                stackName = stackName(created);
+            }
+            return Collections.singletonMap("StackName", stackName);
+        }));
+
+        try {
+            CompletableFuture.allOf(user, tags, stack).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            LOGGER.error("RegistrationService::onboard " + cause.getMessage());
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+
+        return Stream.of(
+                new AbstractMap.SimpleEntry<>("TenantId", job.output("TenantId")),
+                new AbstractMap.SimpleEntry<>("StackName", job.output("StackName")))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    /**
+     * Runs one onboarding step on the onboarding executor unless the job has already
+     * completed it, recording the step's status and outputs on the job as it goes.
+     */
+    private CompletableFuture<Void> step(RegistrationJob job, String step, Callable<Map<String, String>> action) {
+        if (job.isStepCompleted(step)) {
+            LOGGER.info("RegistrationService::step " + step + " already completed");
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            long startTimeMillis = System.currentTimeMillis();
+            updateRegistrationJobStep(job, step, RegistrationJob.RUNNING, Collections.emptyMap());
+            try {
+                Map<String, String> outputs = action.call();
+                job.getOutputs().putAll(outputs);
+                updateRegistrationJobStep(job, step, RegistrationJob.COMPLETED, outputs);
+            } catch (Exception e) {
+                updateRegistrationJobStep(job, step, RegistrationJob.FAILED, Collections.emptyMap());
+                throw e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
+            }
+            long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+            LOGGER.info("RegistrationService::step " + step + " exec " + totalTimeMillis);
+        }, onboardingExecutor);
+    }
+
+    private static Tenant tenantFromJob(RegistrationJob job, Registration registration) {
+        return new Tenant(UUID.fromString(job.output("TenantId")), Boolean.TRUE, registration.getCompany(),
+                registration.getPlan(), job.output("UserPoolId"), job.output("Endpoint"));
+    }
+
+    protected void saveRegistrationJob(RegistrationJob job) {
+        String now = Instant.now().toString();
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("jobId", AttributeValue.builder().s(job.getJobId()).build());
+        item.put("status", AttributeValue.builder().s(job.getStatus()).build());
+        item.put("steps", AttributeValue.builder().m(new HashMap<>()).build());
+        item.put("outputs", AttributeValue.builder().m(new HashMap<>()).build());
+        item.put("createdAt", AttributeValue.builder().s(now).build());
+        item.put("updatedAt", AttributeValue.builder().s(now).build());
+        item.put("expiresAt", AttributeValue.builder().n(String.valueOf(Instant.now().plus(REGISTRATION_JOB_RETENTION).getEpochSecond())).build());
+        try {
+            ddb.putItem(request -> request.tableName(REGISTRATION_JOBS_TABLE).item(item));
+        } catch (DynamoDbException e) {
+            LOGGER.error("RegistrationService::saveRegistrationJob " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected RegistrationJob getRegistrationJob(String jobId) {
+        RegistrationJob job = null;
+        try {
+            GetItemResponse response = ddb.getItem(request -> request
+                    .tableName(REGISTRATION_JOBS_TABLE)
+                    .key(Collections.singletonMap("jobId", AttributeValue.builder().s(jobId).build()))
+                    .consistentRead(Boolean.TRUE)
+            );
+            if (response.hasItem() && !response.item().isEmpty()) {
+                Map<String, AttributeValue> item = response.item();
+                job = new RegistrationJob(jobId, item.get("status").s());
+                if (item.containsKey("error")) {
+                    job.setError(item.get("error").s());
+                }
+                if (item.containsKey("attempts")) {
+                    job.setAttempts(Integer.parseInt(item.get("attempts").n()));
+                }
+                job.setSteps(stringMap(item.get("steps")));
+                job.setOutputs(stringMap(item.get("outputs")));
+            }
+        } catch (DynamoDbException e) {
+            LOGGER.error("RegistrationService::getRegistrationJob " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+        return job;
+    }
+
+    protected void updateRegistrationJobStatus(RegistrationJob job, String status, String error) {
+        job.setStatus(status);
+        job.setError(error);
+        if (job.isTracked()) {
+            Map<String, String> names = new HashMap<>();
+            names.put("#status", "status");
+            names.put("#error", "error");
+            Map<String, AttributeValue> values = new HashMap<>();
+            values.put(":status", AttributeValue.builder().s(status).build());
+            values.put(":now", AttributeValue.builder().s(Instant.now().toString()).build());
+            String updateExpression;
+            if (error != null) {
+                values.put(":error", AttributeValue.builder().s(error).build());
+                updateExpression = "SET #status = :status, updatedAt = :now, #error = :error";
+            } else {
+                updateExpression = "SET #status = :status, updatedAt = :now REMOVE #error";
+            }
+            try {
+                ddb.updateItem(request -> request
+                        .tableName(REGISTRATION_JOBS_TABLE)
+                        .key(Collections.singletonMap("jobId", AttributeValue.builder().s(job.getJobId()).build()))
+                        .updateExpression(updateExpression)
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                );
+            } catch (DynamoDbException e) {
+                LOGGER.error("RegistrationService::updateRegistrationJobStatus " + getFullStackTrace(e));
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // Marks the job as running and counts the attempt, so the worker knows when it's on its last
+    protected void startRegistrationJobAttempt(RegistrationJob job) {
+        job.setStatus(RegistrationJob.RUNNING);
+        job.setError(null);
+        Map<String, String> names = new HashMap<>();
+        names.put("#status", "status");
+        names.put("#error", "error");
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":status", AttributeValue.builder().s(RegistrationJob.RUNNING).build());
+        values.put(":now", AttributeValue.builder().s(Instant.now().toString()).build());
+        values.put(":one", AttributeValue.builder().n("1").build());
+        try {
+            UpdateItemResponse response = ddb.updateItem(request -> request
+                    .tableName(REGISTRATION_JOBS_TABLE)
+                    .key(Collections.singletonMap("jobId", AttributeValue.builder().s(job.getJobId()).build()))
+                    .updateExpression("SET #status = :status, updatedAt = :now REMOVE #error ADD attempts :one")
+                    .expressionAttributeNames(names)
+                    .expressionAttributeValues(values)
+                    .returnValues(ReturnValue.UPDATED_NEW)
+            );
+            job.setAttempts(Integer.parseInt(response.attributes().get("attempts").n()));
+        } catch (DynamoDbException e) {
+            LOGGER.error("RegistrationService::startRegistrationJobAttempt " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Each step only sets its own entries in the steps and outputs maps, so steps running
+    // concurrently can update the same job item without overwriting each other
+    protected void updateRegistrationJobStep(RegistrationJob job, String step, String status, Map<String, String> outputs) {
+        job.getSteps().put(step, status);
+        if (job.isTracked()) {
+            Map<String, String> names = new HashMap<>();
+            Map<String, AttributeValue> values = new HashMap<>();
+            names.put("#step", step);
+            values.put(":status", AttributeValue.builder().s(status).build());
+            values.put(":now", AttributeValue.builder().s(Instant.now().toString()).build());
+            StringBuilder update = new StringBuilder("SET steps.#step = :status, updatedAt = :now");
+            int i = 0;
+            for (Map.Entry<String, String> output : outputs.entrySet()) {
+                names.put("#output" + i, output.getKey());
+                values.put(":output" + i, AttributeValue.builder().s(output.getValue()).build());
+                update.append(", outputs.#output").append(i).append(" = :output").append(i);
+                i++;
+            }
+            try {
+                ddb.updateItem(request -> request
+                        .tableName(REGISTRATION_JOBS_TABLE)
+                        .key(Collections.singletonMap("jobId", AttributeValue.builder().s(job.getJobId()).build()))
+                        .updateExpression(update.toString())
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                );
+            } catch (DynamoDbException e) {
+                LOGGER.error("RegistrationService::updateRegistrationJobStep " + getFullStackTrace(e));
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static Map<String, String> stringMap(AttributeValue value) {
+        Map<String, String> map = new HashMap<>();
+        if (value != null && value.m() != null) {
+            value.m().forEach((key, attribute) -> map.put(key, attribute.s()));
+        }
+        return map;
+    }
+
 //    protected String nextAvailableDatabase() throws Exception {
 //        long startTimeMillis = System.currentTimeMillis();
 //        LOGGER.info("RegistrationService::nextAvailableDatabase");
@@ -310,35 +765,101 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
 //        return result;
 //    }
 
-    protected Map<String, String> nextAvailableDatabase() {
+    /**
+     * Atomically claim an unassigned RDS cluster from the hot pool for the tenant. Free clusters
+     * are the only items in the sparse Available-index GSI, so finding candidates is a single
+     * Query. The claim is a conditional UpdateItem that removes the Available attribute and sets
+     * the TenantId, so if two registrations race for the same cluster exactly one of them wins
+     * and the other moves on to the next candidate or re-queries after a short backoff. A
+     * cluster the tenant already claimed on an earlier attempt is returned instead.
+     * @param tenantId
+     * @return the claimed cluster's DBClusterIdentifier and Endpoint or an empty map if the
+     * hot pool has been depleted
+     */
+    protected Map<String, String> nextAvailableDatabase(String tenantId) {
         long startTimeMillis = System.currentTimeMillis();
-        LOGGER.info("RegistrationService::nextAvailableDatabase");
+        LOGGER.info("RegistrationService::nextAvailableDatabase " + tenantId);
         Map<String, String> availableDatabase = new HashMap<>();
         try {
-            // Get the records from our pool management table that haven't
-            // been assigned to a tenant yet
-            ScanResponse response = ddb.scan(request -> request
-                    .tableName("saas-factory-srvls-wrkshp-rds-clusters")
-                    .filterExpression("attribute_not_exists(TenantId)")
+            Map<String, AttributeValue> claimValues = new HashMap<>();
+            claimValues.put(":tenantId", AttributeValue.builder().s(tenantId).build());
+            claimValues.put(":now", AttributeValue.builder().s(Instant.now().toString()).build());
+
+            QueryResponse existing = ddb.query(request -> request
+                    .tableName(RDS_CLUSTERS_TABLE)
+                    .indexName(RDS_CLUSTERS_TENANT_INDEX)
+                    .keyConditionExpression("TenantId = :tenantId")
+                    .expressionAttributeValues(Collections.singletonMap(":tenantId", claimValues.get(":tenantId")))
             );
-            if (!response.items().isEmpty()) {
-                Map<String, AttributeValue> item = response.items().get(0);
-                availableDatabase.put("DBClusterIdentifier", item.get("DBClusterIdentifier").s());
-                availableDatabase.put("Endpoint", item.get("Endpoint").s());
+            if (!existing.items().isEmpty()) {
+                Map<String, AttributeValue> cluster = existing.items().get(0);
+                LOGGER.info("RegistrationService::nextAvailableDatabase already claimed " + cluster.get("DBClusterIdentifier").s());
+                availableDatabase.put("DBClusterIdentifier", cluster.get("DBClusterIdentifier").s());
+                availableDatabase.put("Endpoint", cluster.get("Endpoint").s());
+                return availableDatabase;
+            }
+
+            for (int attempt = 0; attempt < CLAIM_DATABASE_ATTEMPTS && availableDatabase.isEmpty(); attempt++) {
+                if (attempt > 0) {
+                    Thread.sleep((25L << attempt) + ThreadLocalRandom.current().nextInt(25));
+                }
+                QueryResponse response = ddb.query(request -> request
+                        .tableName(RDS_CLUSTERS_TABLE)
+                        .indexName(RDS_CLUSTERS_AVAILABLE_INDEX)
+                        .keyConditionExpression("Available = :available")
+                        .expressionAttributeValues(Collections.singletonMap(":available", AttributeValue.builder().s("true").build()))
+                        .limit(CLAIM_DATABASE_CANDIDATES)
+                );
+                if (response.items().isEmpty()) {
+                    break;
+                }
+                // Spread concurrent claimers across the candidates instead of all
+                // fighting over the first one
+                List<Map<String, AttributeValue>> candidates = new ArrayList<>(response.items());
+                Collections.shuffle(candidates);
+                for (Map<String, AttributeValue> candidate : candidates) {
+                    try {
+                        ddb.updateItem(request -> request
+                                .tableName(RDS_CLUSTERS_TABLE)
+                                .key(Collections.singletonMap("DBClusterIdentifier", candidate.get("DBClusterIdentifier")))
+                                .conditionExpression("(attribute_exists(Available) AND attribute_not_exists(TenantId)) OR TenantId = :tenantId")
+                                .updateExpression("SET TenantId = :tenantId, ClaimedAt = :now REMOVE Available")
+                                .expressionAttributeValues(claimValues)
+                        );
+                        availableDatabase.put("DBClusterIdentifier", candidate.get("DBClusterIdentifier").s());
+                        availableDatabase.put("Endpoint", candidate.get("Endpoint").s());
+                        break;
+                    } catch (ConditionalCheckFailedException claimed) {
+                        // Another registration got here first
+                    }
+                }
             }
         } catch (DynamoDbException e) {
             LOGGER.error("RegistrationService::nextAvailableDatabase " + getFullStackTrace(e));
             throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("RegistrationService::nextAvailableDatabase exec " + totalTimeMillis);
         return availableDatabase;
     }
 
-    protected Tenant createTenant(String companyName, String plan, String database) throws Exception {
+    /**
+     * Creates the tenant record with the given id. The tenant service answers 409 when the
+     * id is taken, which for a retried registration means an earlier attempt created it.
+     * @param tenantId
+     * @param companyName
+     * @param plan
+     * @param database
+     * @return
+     * @throws Exception
+     */
+    protected Tenant createTenant(UUID tenantId, String companyName, String plan, String database) throws Exception {
         long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("RegistrationService::createTenant " + companyName);
-        Tenant tenant = new Tenant(null, Boolean.TRUE, companyName, plan, null, database);
+        Tenant tenant = new Tenant(tenantId, Boolean.TRUE, companyName, plan, null, database);
 
         URI invokeURL = URI.create(apiGatewayEndpoint + "/tenants");
         HttpURLConnection apiGateway = (HttpURLConnection) invokeURL.toURL().openConnection();
@@ -355,87 +876,154 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
         writer.close();
         body.close();
 
-        if (apiGateway.getResponseCode() >= 400) {
+        Tenant result;
+        if (apiGateway.getResponseCode() == HttpURLConnection.HTTP_CONFLICT) {
+            LOGGER.info("RegistrationService::createTenant tenant " + tenantId + " already exists");
+            result = tenant;
+        } else if (apiGateway.getResponseCode() >= 400) {
             throw new Exception(IoUtils.toUtf8String(apiGateway.getErrorStream()));
+        } else {
+            result = tenantFromJson(IoUtils.toUtf8String(apiGateway.getInputStream()));
         }
-        Tenant result = tenantFromJson(IoUtils.toUtf8String(apiGateway.getInputStream()));
         apiGateway.disconnect();
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("RegistrationService::createTenant exec " + totalTimeMillis);
         return result;
     }
 
-    protected String createUserPool(Tenant tenant, Registration registration) {
+    /**
+     * Claims a user pool from the warm pool kept full by the {@link UserPoolReplenisher},
+     * only creating one here if the warm pool has run dry. A pool created here is recorded
+     * as already claimed by the tenant so a retried registration finds it again.
+     * @param tenant
+     * @param registration
+     * @return the app client, which carries both the user pool id and the client id
+     */
+    protected UserPoolClientType createUserPool(Tenant tenant, Registration registration) {
+        long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("RegistrationService::createUserPool");
-        String tenantId = tenant.getId().toString();
-        String poolName = tenantId.substring(0, 8);
-        CreateUserPoolResponse createUserPoolResponse = cognito.createUserPool(request -> request
-                .poolName(poolName + "_UserPool")
-                .schema(
-                        SchemaAttributeType.builder()
-                                .attributeDataType(AttributeDataType.STRING)
-                                .name("email")
-                                .required(Boolean.TRUE)
-                                .build(),
-                        SchemaAttributeType.builder()
-                                .attributeDataType(AttributeDataType.STRING)
-                                .name("given_name")
-                                .required(Boolean.TRUE)
-                                .build(),
-                        SchemaAttributeType.builder()
-                                .attributeDataType(AttributeDataType.STRING)
-                                .name("family_name")
-                                .required(Boolean.TRUE)
-                                .build(),
-                        SchemaAttributeType.builder()
-                                .attributeDataType(AttributeDataType.STRING)
-                                .name("tenant_id")
-                                .required(Boolean.FALSE) // Custom attributes can't be required
-                                .mutable(Boolean.FALSE)
-                                .build(),
-                        SchemaAttributeType.builder()
-                                .attributeDataType(AttributeDataType.STRING)
-                                .name("company")
-                                .required(Boolean.FALSE) // Custom attributes can't be required
-                                .mutable(Boolean.TRUE)
-                                .build(),
-                        SchemaAttributeType.builder()
-                                .attributeDataType(AttributeDataType.STRING)
-                                .name("plan")
-                                .required(Boolean.FALSE) // Custom attributes can't be required
-                                .mutable(Boolean.TRUE)
-                                .build()
-                )
-                .adminCreateUserConfig(
-                        AdminCreateUserConfigType.builder()
-                                .allowAdminCreateUserOnly(Boolean.TRUE)
-                                .build()
-                )
-                .policies(
-                        UserPoolPolicyType.builder()
-                                .passwordPolicy(
-                                        PasswordPolicyType.builder()
-                                                .minimumLength(8)
-                                                .requireLowercase(Boolean.TRUE)
-                                                .requireUppercase(Boolean.TRUE)
-                                                .requireNumbers(Boolean.TRUE)
-                                                .temporaryPasswordValidityDays(7)
-                                                .build()
-                                )
-                        .build()
-                )
-        );
-        UserPoolType userPool = createUserPoolResponse.userPool();
-
-        LOGGER.info("RegistrationService::createUserPool create app client");
-        CreateUserPoolClientResponse userPoolClientResponse = cognito.createUserPoolClient(request -> request
-                .userPoolId(userPool.id())
-                .clientName(poolName + "_AppClient")
-                .generateSecret(Boolean.FALSE)
-                .explicitAuthFlows(ExplicitAuthFlowsType.ADMIN_NO_SRP_AUTH)
-        );
+        UserPoolClientType appClient = claimUserPool(tenant);
+        if (appClient == null) {
+            LOGGER.warn("RegistrationService::createUserPool warm pool is empty, creating user pool");
+            String poolName = tenant.getId().toString().substring(0, 8);
+            appClient = UserPoolFactory.createUserPool(cognito, poolName,
+                    Collections.singletonMap("TenantId", tenant.getId().toString()));
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("UserPoolId", AttributeValue.builder().s(appClient.userPoolId()).build());
+            item.put("AppClientId", AttributeValue.builder().s(appClient.clientId()).build());
+            item.put("TenantId", AttributeValue.builder().s(tenant.getId().toString()).build());
+            item.put("CreatedAt", AttributeValue.builder().s(Instant.now().toString()).build());
+            item.put("ClaimedAt", item.get("CreatedAt"));
+            try {
+                ddb.putItem(request -> request.tableName(UserPoolFactory.USER_POOLS_TABLE).item(item));
+            } catch (DynamoDbException e) {
+                LOGGER.error("RegistrationService::createUserPool " + getFullStackTrace(e));
+                throw new RuntimeException(e);
+            }
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("RegistrationService::createUserPool exec " + totalTimeMillis);
+        return appClient;
+    }
+
+    /**
+     * Claims an unassigned user pool for the tenant. Removing Available and setting TenantId
+     * in the same conditional update means exactly one registration wins each pool. A pool
+     * the tenant already claimed on an earlier attempt is returned instead.
+     * @param tenant
+     * @return the claimed pool's app client or null if there are none available
+     */
+    protected UserPoolClientType claimUserPool(Tenant tenant) {
+        UserPoolClientType appClient = null;
+        try {
+            Map<String, AttributeValue> claimValues = new HashMap<>();
+            claimValues.put(":tenantId", AttributeValue.builder().s(tenant.getId().toString()).build());
+            claimValues.put(":now", AttributeValue.builder().s(Instant.now().toString()).build());
+
+            QueryResponse existing = ddb.query(request -> request
+                    .tableName(UserPoolFactory.USER_POOLS_TABLE)
+                    .indexName(UserPoolFactory.USER_POOLS_TENANT_INDEX)
+                    .keyConditionExpression("TenantId = :tenantId")
+                    .expressionAttributeValues(Collections.singletonMap(":tenantId", claimValues.get(":tenantId")))
+            );
+            if (!existing.items().isEmpty()) {
+                Map<String, AttributeValue> pool = existing.items().get(0);
+                LOGGER.info("RegistrationService::claimUserPool already claimed " + pool.get("UserPoolId").s());
+                return UserPoolClientType.builder()
+                        .userPoolId(pool.get("UserPoolId").s())
+                        .clientId(pool.get("AppClientId").s())
+                        .build();
+            }
+
+            for (int attempt = 0; attempt < CLAIM_USER_POOL_ATTEMPTS && appClient == null; attempt++) {
+                if (attempt > 0) {
+                    Thread.sleep((25L << attempt) + ThreadLocalRandom.current().nextInt(25));
+                }
+                QueryResponse response = ddb.query(request -> request
+                        .tableName(UserPoolFactory.USER_POOLS_TABLE)
+                        .indexName(UserPoolFactory.USER_POOLS_AVAILABLE_INDEX)
+                        .keyConditionExpression("Available = :available")
+                        .expressionAttributeValues(Collections.singletonMap(":available", AttributeValue.builder().s("true").build()))
+                        .limit(CLAIM_USER_POOL_CANDIDATES)
+                );
+                if (response.items().isEmpty()) {
+                    break;
+                }
+                List<Map<String, AttributeValue>> candidates = new ArrayList<>(response.items());
+                Collections.shuffle(candidates);
+                for (Map<String, AttributeValue> candidate : candidates) {
+                    try {
+                        ddb.updateItem(request -> request
+                                .tableName(UserPoolFactory.USER_POOLS_TABLE)
+                                .key(Collections.singletonMap("UserPoolId", candidate.get("UserPoolId")))
+                                .conditionExpression("(attribute_exists(Available) AND attribute_not_exists(TenantId)) OR TenantId = :tenantId")
+                                .updateExpression("SET TenantId = :tenantId, ClaimedAt = :now REMOVE Available")
+                                .expressionAttributeValues(claimValues)
+                        );
+                        appClient = UserPoolClientType.builder()
+                                .userPoolId(candidate.get("UserPoolId").s())
+                                .clientId(candidate.get("AppClientId").s())
+                                .build();
+                        LOGGER.info("RegistrationService::claimUserPool claimed " + appClient.userPoolId());
+                        break;
+                    } catch (ConditionalCheckFailedException claimed) {
+                        // Another registration got here first
+                    }
+                }
+            }
+        } catch (DynamoDbException e) {
+            LOGGER.error("RegistrationService::claimUserPool " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        return appClient;
+    }
 
-        return userPool.id();
+    /**
+     * Warm pools are created before their tenant is known and can't be renamed, so the
+     * tenant id is added as a tag to tie the pool back to its tenant in the console and
+     * in billing. Best effort, the user pools table is the record registration relies on.
+     * @param userPoolId
+     * @param tenant
+     */
+    protected void tagUserPool(String userPoolId, Tenant tenant) {
+        try {
+            cognito.tagResource(request -> request
+                    .resourceArn(userPoolArn(userPoolId))
+                    .tags(Collections.singletonMap("TenantId", tenant.getId().toString()))
+            );
+        } catch (CognitoIdentityProviderException e) {
+            LOGGER.warn("RegistrationService::tagUserPool " + userPoolId + " " + e.getMessage());
+        }
+    }
+
+    // The pools are in the same partition, region and account as the ALB listener, so their
+    // ARN can be built from the listener's instead of describing the pool to get it
+    protected String userPoolArn(String userPoolId) {
+        String[] listener = albListenerArn.split(":", 6);
+        return String.join(":", "arn", listener[1], "cognito-idp", listener[3], listener[4], "userpool/" + userPoolId);
     }
 
     protected Tenant updateTenantUserPool(Tenant tenant, String userPoolId) throws Exception {
@@ -469,12 +1057,12 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
         return result;
     }
 
-    protected String createUser(Tenant tenant, Registration registration) {
+    protected String createUser(Tenant tenant, Registration registration, String appClientId) {
         LOGGER.info("RegistrationService::createUser create Cognito user " + registration.getEmail());
         final String userPool = tenant.getUserPool();
-        AdminCreateUserResponse createUserResponse = null;
+        UserType user;
         try {
-            createUserResponse = cognito.adminCreateUser(request -> request
+            user = cognito.adminCreateUser(request -> request
                     .userPoolId(userPool)
                     .username(registration.getEmail())
                     .userAttributes(
@@ -488,24 +1076,110 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
                     .temporaryPassword(generatePassword())
                     .desiredDeliveryMediumsWithStrings("EMAIL")
                     .messageAction("SUPPRESS")
-            );
+            ).user();
+        } catch (UsernameExistsException exists) {
+            // A retried registration that created the user but didn't get to record it
+            LOGGER.info("RegistrationService::createUser user already exists " + registration.getEmail());
+            user = UserType.builder().username(cognito.adminGetUser(request -> request
+                    .userPoolId(userPool)
+                    .username(registration.getEmail())
+            ).username()).build();
         } catch (SdkServiceException cognitoError) {
             LOGGER.error("CognitoIdentity::AdminCreateUser", cognitoError);
             LOGGER.error(getFullStackTrace(cognitoError));
+            throw cognitoError;
         }
-        final UserType user = createUserResponse.user();
+        final String username = user.username();
 
         LOGGER.info("RegistrationService::createUser setting password");
         AdminSetUserPasswordResponse passwordResponse = cognito.adminSetUserPassword(request -> request
                 .userPoolId(userPool)
-                .username(user.username())
+                .username(username)
                 .password(registration.getPassword())
                 .permanent(Boolean.TRUE)
         );
 
 //        UserStatusType status = cognito.adminGetUser(request -> request.userPoolId(userPool).username(user.username())).userStatus();
 //        LOGGER.info("RegistrationService::createUser " + user.username() + " " + status.toString());
-        return user.username();
+
+        saveUserDirectoryEntry(username, tenant, userPool, appClientId);
+        return username;
+    }
+
+    protected static String registrationPasswordParameter(RegistrationJob job) {
+        return REGISTRATION_PASSWORD_ROOT + job.getJobId() + "/PASSWORD";
+    }
+
+    /**
+     * Saves the registration's password for the worker. It's deleted once the user has been
+     * created or the job has failed for good, and the expiration policy removes it anyway in
+     * case neither happens, like when Lambda drops the queued registration.
+     * @param job
+     * @param password
+     */
+    protected void saveRegistrationPassword(RegistrationJob job, String password) {
+        String expiresAt = Instant.now().plus(REGISTRATION_PASSWORD_TTL).truncatedTo(ChronoUnit.SECONDS).toString();
+        ssm.putParameter(request -> request
+                .name(registrationPasswordParameter(job))
+                .value(password)
+                .type(ParameterType.SECURE_STRING)
+                .overwrite(Boolean.TRUE)
+                // Parameter policies are only supported on the advanced tier
+                .tier(ParameterTier.ADVANCED)
+                .policies("[{\"Type\":\"Expiration\",\"Version\":\"1.0\",\"Attributes\":{\"Timestamp\":\"" + expiresAt + "\"}}]")
+        );
+    }
+
+    protected String getRegistrationPassword(RegistrationJob job) {
+        return ssm.getParameter(request -> request
+                .name(registrationPasswordParameter(job))
+                .withDecryption(Boolean.TRUE)
+        ).parameter().value();
+    }
+
+    // Best effort, the expiration policy removes the password if this fails
+    protected void deleteRegistrationPassword(RegistrationJob job) {
+        try {
+            ssm.deleteParameter(request -> request.name(registrationPasswordParameter(job)));
+        } catch (SdkServiceException e) {
+            LOGGER.warn("RegistrationService::deleteRegistrationPassword " + e.getMessage());
+        }
+    }
+
+    /**
+     * Record which user pool and app client a username belongs to so the AuthService
+     * can resolve sign-ins with a single key lookup instead of scanning every pool
+     * @param username
+     * @param tenant
+     * @param userPoolId
+     * @param appClientId
+     */
+    protected void saveUserDirectoryEntry(String username, Tenant tenant, String userPoolId, String appClientId) {
+        long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("RegistrationService::saveUserDirectoryEntry " + username);
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("username", AttributeValue.builder().s(username).build());
+        item.put("tenantId", AttributeValue.builder().s(tenant.getId().toString()).build());
+        item.put("userPoolId", AttributeValue.builder().s(userPoolId).build());
+        item.put("appClientId", AttributeValue.builder().s(appClientId).build());
+        try {
+            ddb.putItem(request -> request.tableName(USER_DIRECTORY_TABLE).item(item));
+        } catch (DynamoDbException e) {
+            LOGGER.error("RegistrationService::saveUserDirectoryEntry " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("RegistrationService::saveUserDirectoryEntry exec " + totalTimeMillis);
+    }
+
+    /**
+     * Tenant settings are kept under one parameter store path per tenant,
+     * /saas-factory-srvls-wrkshp/tenant/{tenantId}/DB_HOST and so on
+     * @param tenant
+     * @return
+     */
+    protected static String tenantConfigPath(Tenant tenant) {
+        return TENANT_CONFIG_ROOT + tenant.getId().toString();
     }
 
     protected void storeParameters(Tenant tenant) {
@@ -518,39 +1192,115 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
                 new AbstractMap.SimpleEntry<>("DB_HOST", tenant.getDatabase())
         ).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
 
+        // Parameter store has no batch put, so write the tenant's settings in parallel. They
+        // all live under the tenant's path so readers can load them with one GetParametersByPath.
+        String path = tenantConfigPath(tenant);
         List<CompletableFuture<PutParameterResponse>> threads = new ArrayList<>();
-        params.forEach((key, value) -> {
-            String param = tenant.getId().toString() + "_" + key;
+        params.forEach((key, value) -> threads.add(CompletableFuture.supplyAsync(() -> {
+            String param = path + "/" + key;
             LOGGER.info("RegistrationService::storeParameters PutParameter " + param);
-            PutParameterResponse response = ssm.putParameter(request -> request
+            return ssm.putParameter(request -> request
                     .name(param)
                     .value(value)
                     .type(key.startsWith("DB_PASS") ? ParameterType.SECURE_STRING : ParameterType.STRING)
                     .overwrite(Boolean.TRUE)
             );
-        });
+        }, parameterExecutor)));
+        try {
+            CompletableFuture.allOf(threads.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            LOGGER.error("RegistrationService::storeParameters " + e.getCause().getMessage());
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("RegistrationService::storeParameters exec " + totalTimeMillis);
     }
 
-    protected String createStack(Tenant tenant) {
-        long startTimeMillis = System.currentTimeMillis();
-
-        LOGGER.info("RegistrationService::createStack getting routing rule priority");
-        int priority = 0;
+    /**
+     * One past the highest priority in use on the ALB listener. Rules can be deleted, so
+     * counting them could hand out a priority that is still in use.
+     * @return
+     */
+    protected Integer routingRulePriority() {
+        LOGGER.info("RegistrationService::routingRulePriority getting routing rule priority");
+        int highest = 0;
         try {
-            DescribeRulesResponse elbResponse = elbv2.describeRules(request -> request
-                    .listenerArn(albListenerArn)
-            );
-            priority = elbResponse.rules().size() + 1;
+            String marker = null;
+            do {
+                final String page = marker;
+                DescribeRulesResponse elbResponse = elbv2.describeRules(request -> request
+                        .listenerArn(albListenerArn)
+                        .marker(page)
+                );
+                for (Rule rule : elbResponse.rules()) {
+                    // The listener's default rule has the priority "default"
+                    if (!"default".equals(rule.priority())) {
+                        highest = Math.max(highest, Integer.parseInt(rule.priority()));
+                    }
+                }
+                marker = elbResponse.nextMarker();
+            } while (marker != null && !marker.isEmpty());
         } catch (SdkServiceException e) {
             LOGGER.error(getFullStackTrace(e));
             throw new RuntimeException(e);
         }
-        LOGGER.info("RegistrationService::createStack routing rule priority = " + priority);
+        LOGGER.info("RegistrationService::routingRulePriority routing rule priority = " + (highest + 1));
+        return highest + 1;
+    }
+
+    /**
+     * Reserves a listener rule priority for a tenant's stack. The stack only creates its
+     * rule minutes later, so two registrations looking at the listener at the same time
+     * would pick the same priority and one of the stacks would fail. Priorities are handed
+     * out by an atomic counter instead. The counter is first raised to the listener's
+     * highest priority in case rules were added outside of registration, and can never go
+     * down, so every caller gets a priority that is above the listener's and unique.
+     * @return
+     */
+    protected Integer reserveRoutingRulePriority() {
+        long startTimeMillis = System.currentTimeMillis();
+        Map<String, AttributeValue> key = Collections.singletonMap("Priority",
+                AttributeValue.builder().n(PRIORITY_COUNTER_KEY).build());
+        int highest = routingRulePriority() - 1;
+        try {
+            ddb.updateItem(request -> request
+                    .tableName(ALB_RULE_PRIORITIES_TABLE)
+                    .key(key)
+                    .updateExpression("SET LastAllocated = :highest")
+                    .conditionExpression("attribute_not_exists(LastAllocated) OR LastAllocated < :highest")
+                    .expressionAttributeValues(Collections.singletonMap(":highest",
+                            AttributeValue.builder().n(String.valueOf(highest)).build()))
+            );
+        } catch (ConditionalCheckFailedException ahead) {
+            LOGGER.info("RegistrationService::reserveRoutingRulePriority counter is already past " + highest);
+        } catch (DynamoDbException e) {
+            LOGGER.error("RegistrationService::reserveRoutingRulePriority " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+        Integer reserved;
+        try {
+            UpdateItemResponse response = ddb.updateItem(request -> request
+                    .tableName(ALB_RULE_PRIORITIES_TABLE)
+                    .key(key)
+                    .updateExpression("ADD LastAllocated :one")
+                    .expressionAttributeValues(Collections.singletonMap(":one",
+                            AttributeValue.builder().n("1").build()))
+                    .returnValues(ReturnValue.UPDATED_NEW)
+            );
+            reserved = Integer.valueOf(response.attributes().get("LastAllocated").n());
+        } catch (DynamoDbException e) {
+            LOGGER.error("RegistrationService::reserveRoutingRulePriority " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("RegistrationService::reserveRoutingRulePriority " + reserved + " exec " + totalTimeMillis);
+        return reserved;
+    }
 
-        final Integer tenantAlbRulePriority = priority;
-        String stackName = "Tenant-" + tenant.getId().toString().substring(0, 8);
+    protected String createStack(Tenant tenant, Integer tenantAlbRulePriority) {
+        long startTimeMillis = System.currentTimeMillis();
+
+        String stackName = stackName(tenant);
         LOGGER.info("RegistrationService::createStack " + stackName);
         CreateStackResponse response = cfn.createStack(request -> request
                 .stackName(stackName)
@@ -580,6 +1330,10 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
         return stackName;
     }
 
+    protected static String stackName(Tenant tenant) {
+        return "Tenant-" + tenant.getId().toString().substring(0, 8);
+    }
+
     /**
      * Generate a random password that matches the password policy of the Cognito user pool
      * @return
@@ -616,6 +1370,15 @@ public class RegistrationService implements RequestHandler<Map<String, Object>,
         return password.toString();
     }
 
+    /**
+     * Run during init so Jackson has introspected the request and job
+     * types before the first real registration needs them
+     */
+    private static void prime() {
+        registrationFromJson(toJson(new Registration()));
+        toJson(new RegistrationJob());
+    }
+
     public static Registration registrationFromJson(String json) {
         Registration registration = null;
         try {
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.*;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Creates the tenant user pools. Used both by registration, when the warm pool of user
+ * pools has run dry, and by the {@link UserPoolReplenisher} that keeps the warm pool full.
+ */
+public class UserPoolFactory {
+
+    public final static String USER_POOLS_TABLE = "saas-factory-srvls-wrkshp-user-pools";
+    public final static String USER_POOLS_AVAILABLE_INDEX = "Available-index";
+    public final static String USER_POOLS_TENANT_INDEX = "TenantId-index";
+
+    private UserPoolFactory() {
+    }
+
+    /**
+     * Creates a user pool with the tenant user attributes and an app client for it
+     * @param cognito
+     * @param poolName prefix for the user pool and app client names
+     * @return the app client, which carries both the user pool id and the client id
+     */
+    public static UserPoolClientType createUserPool(CognitoIdentityProviderClient cognito, String poolName) {
+        return createUserPool(cognito, poolName, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a user pool with the tenant user attributes and an app client for it
+     * @param cognito
+     * @param poolName prefix for the user pool and app client names
+     * @param tags added to the user pool
+     * @return the app client, which carries both the user pool id and the client id
+     */
+    public static UserPoolClientType createUserPool(CognitoIdentityProviderClient cognito, String poolName, Map<String, String> tags) {
+        CreateUserPoolResponse createUserPoolResponse = cognito.createUserPool(request -> request
+                .poolName(poolName + "_UserPool")
+                .userPoolTags(tags)
+                .schema(
+                        SchemaAttributeType.builder()
+                                .attributeDataType(AttributeDataType.STRING)
+                                .name("email")
+                                .required(Boolean.TRUE)
+                                .build(),
+                        SchemaAttributeType.builder()
+                                .attributeDataType(AttributeDataType.STRING)
+                                .name("given_name")
+                                .required(Boolean.TRUE)
+                                .build(),
+                        SchemaAttributeType.builder()
+                                .attributeDataType(AttributeDataType.STRING)
+                                .name("family_name")
+                                .required(Boolean.TRUE)
+                                .build(),
+                        SchemaAttributeType.builder()
+                                .attributeDataType(AttributeDataType.STRING)
+                                .name("tenant_id")
+                                .required(Boolean.FALSE) // Custom attributes can't be required
+                                .mutable(Boolean.FALSE)
+                                .build(),
+                        SchemaAttributeType.builder()
+                                .attributeDataType(AttributeDataType.STRING)
+                                .name("company")
+                                .required(Boolean.FALSE) // Custom attributes can't be required
+                                .mutable(Boolean.TRUE)
+                                .build(),
+                        SchemaAttributeType.builder()
+                                .attributeDataType(AttributeDataType.STRING)
+                                .name("plan")
+                                .required(Boolean.FALSE) // Custom attributes can't be required
+                                .mutable(Boolean.TRUE)
+                                .build()
+                )
+                .adminCreateUserConfig(
+                        AdminCreateUserConfigType.builder()
+                                .allowAdminCreateUserOnly(Boolean.TRUE)
+                                .build()
+                )
+                .policies(
+                        UserPoolPolicyType.builder()
+                                .passwordPolicy(
+                                        PasswordPolicyType.builder()
+                                                .minimumLength(8)
+                                                .requireLowercase(Boolean.TRUE)
+                                                .requireUppercase(Boolean.TRUE)
+                                                .requireNumbers(Boolean.TRUE)
+                                                .temporaryPasswordValidityDays(7)
+                                                .build()
+                                )
+                        .build()
+                )
+        );
+        UserPoolType userPool = createUserPoolResponse.userPool();
+
+        try {
+            CreateUserPoolClientResponse userPoolClientResponse = cognito.createUserPoolClient(request -> request
+                    .userPoolId(userPool.id())
+                    .clientName(poolName + "_AppClient")
+                    .generateSecret(Boolean.FALSE)
+                    .explicitAuthFlows(ExplicitAuthFlowsType.ADMIN_NO_SRP_AUTH)
+            );
+            return userPoolClientResponse.userPoolClient();
+        } catch (CognitoIdentityProviderException e) {
+            // Don't leave a pool behind that nothing can sign in to
+            cognito.deleteUserPool(request -> request.userPoolId(userPool.id()));
+            throw e;
+        }
+    }
+}
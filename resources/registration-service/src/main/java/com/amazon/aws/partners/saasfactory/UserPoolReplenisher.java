@@ -0,0 +1,154 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.CognitoIdentityProviderException;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.UserPoolClientType;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.Select;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps a warm pool of unassigned Cognito user pools, each with its app client, so that
+ * registration only has to claim one instead of creating it. Runs on a schedule and tops
+ * the pool back up to WARM_USER_POOLS. Pools are created one at a time because the Cognito
+ * control plane calls are tightly rate limited.
+ *
+ * Each warm pool is a row in the user pools table. Unclaimed rows carry Available = "true",
+ * which puts them in the sparse Available-index that registration claims from.
+ */
+public class UserPoolReplenisher implements RequestHandler<Map<String, Object>, Integer> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(UserPoolReplenisher.class);
+    private final static int DEFAULT_WARM_USER_POOLS = 5;
+    private CognitoIdentityProviderClient cognito;
+    private DynamoDbClient ddb;
+    private int warmUserPools;
+
+    public UserPoolReplenisher() {
+        this.cognito = CognitoIdentityProviderClient.builder()
+                .httpClientBuilder(UrlConnectionHttpClient.builder())
+                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
+                .build();
+
+        this.ddb = DynamoDbClient.builder()
+                .httpClientBuilder(UrlConnectionHttpClient.builder())
+                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
+                .build();
+
+        String size = System.getenv("WARM_USER_POOLS");
+        this.warmUserPools = size != null && !size.isEmpty() ? Integer.parseInt(size) : DEFAULT_WARM_USER_POOLS;
+    }
+
+    /**
+     * @param event
+     * @param context
+     * @return the number of user pools added to the warm pool
+     */
+    @Override
+    public Integer handleRequest(Map<String, Object> event, Context context) {
+        long startTimeMillis = System.currentTimeMillis();
+        int available = availableUserPools();
+        int needed = warmUserPools - available;
+        LOGGER.info("UserPoolReplenisher::handleRequest " + available + " available, adding " + Math.max(needed, 0));
+        int added = 0;
+        for (int i = 0; i < needed; i++) {
+            // Stop before Lambda times us out and leaves a pool that isn't in the table
+            if (context != null && context.getRemainingTimeInMillis() < 10000) {
+                LOGGER.info("UserPoolReplenisher::handleRequest out of time");
+                break;
+            }
+            try {
+                addUserPool();
+                added++;
+            } catch (CognitoIdentityProviderException e) {
+                // Most likely throttled, the next scheduled run will carry on
+                LOGGER.error("UserPoolReplenisher::handleRequest " + RegistrationService.getFullStackTrace(e));
+                break;
+            }
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("UserPoolReplenisher::handleRequest exec " + totalTimeMillis);
+        return added;
+    }
+
+    protected int availableUserPools() {
+        int available = 0;
+        try {
+            Map<String, AttributeValue> lastEvaluatedKey = null;
+            do {
+                final Map<String, AttributeValue> exclusiveStartKey = lastEvaluatedKey;
+                QueryResponse response = ddb.query(request -> request
+                        .tableName(UserPoolFactory.USER_POOLS_TABLE)
+                        .indexName(UserPoolFactory.USER_POOLS_AVAILABLE_INDEX)
+                        .keyConditionExpression("Available = :available")
+                        .expressionAttributeValues(Collections.singletonMap(":available", AttributeValue.builder().s("true").build()))
+                        .select(Select.COUNT)
+                        .exclusiveStartKey(exclusiveStartKey)
+                );
+                available += response.count();
+                lastEvaluatedKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty() ? response.lastEvaluatedKey() : null;
+            } while (lastEvaluatedKey != null);
+        } catch (DynamoDbException e) {
+            LOGGER.error("UserPoolReplenisher::availableUserPools " + RegistrationService.getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+        return available;
+    }
+
+    protected void addUserPool() {
+        long startTimeMillis = System.currentTimeMillis();
+        String poolName = "Warm_" + UUID.randomUUID().toString().substring(0, 8);
+        UserPoolClientType appClient = UserPoolFactory.createUserPool(cognito, poolName);
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("UserPoolId", AttributeValue.builder().s(appClient.userPoolId()).build());
+        item.put("AppClientId", AttributeValue.builder().s(appClient.clientId()).build());
+        item.put("Available", AttributeValue.builder().s("true").build());
+        item.put("CreatedAt", AttributeValue.builder().s(Instant.now().toString()).build());
+        try {
+            ddb.putItem(request -> request
+                    .tableName(UserPoolFactory.USER_POOLS_TABLE)
+                    .item(item)
+            );
+        } catch (DynamoDbException e) {
+            LOGGER.error("UserPoolReplenisher::addUserPool " + RegistrationService.getFullStackTrace(e));
+            cognito.deleteUserPool(request -> request.userPoolId(appClient.userPoolId()));
+            throw new RuntimeException(e);
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("UserPoolReplenisher::addUserPool " + appClient.userPoolId() + " exec " + totalTimeMillis);
+    }
+}
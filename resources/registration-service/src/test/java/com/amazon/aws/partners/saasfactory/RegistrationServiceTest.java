@@ -17,14 +17,25 @@
 package com.amazon.aws.partners.saasfactory;
 
 import org.junit.Test;
+import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.*;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
 
-import java.util.UUID;
+import java.util.*;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.*;
 
 public class RegistrationServiceTest {
 
+    private final static String LISTENER = "arn:aws:elasticloadbalancing:us-east-1:123456789012:listener/app/saas-factory-srvls-wrkshp/50dc6c495c0c9188/f2f7dc8efc522ab2";
+
     @Test
     public void generatePasswordTest() {
 
@@ -47,4 +58,165 @@ public class RegistrationServiceTest {
         r.setCompany("Company");
         assertFalse(r.isEmpty());
     }
-}
\ No newline at end of file
+
+    private static Map<String, AttributeValue> userPool(String id) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("UserPoolId", AttributeValue.builder().s(id).build());
+        item.put("AppClientId", AttributeValue.builder().s(id + "-client").build());
+        return item;
+    }
+
+    /**
+     * Stands in for the user pools table. Pools in claimedBy belong to that tenant, so a
+     * claim on one of them only passes its condition for the same tenant, like it would
+     * if the pool had been claimed by an earlier attempt or a concurrent registration.
+     */
+    private static class UserPools implements DynamoDbClient {
+        final List<Map<String, AttributeValue>> available = new ArrayList<>();
+        final Map<String, String> claimedBy = new HashMap<>();
+        final List<String> claimAttempts = new ArrayList<>();
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            if ("TenantId-index".equals(request.indexName())) {
+                String tenantId = request.expressionAttributeValues().get(":tenantId").s();
+                claimedBy.forEach((id, tenant) -> {
+                    if (tenant.equals(tenantId)) {
+                        items.add(userPool(id));
+                    }
+                });
+            } else {
+                assertEquals("Available-index", request.indexName());
+                for (Map<String, AttributeValue> pool : available) {
+                    if (!claimedBy.containsKey(pool.get("UserPoolId").s())) {
+                        items.add(pool);
+                    }
+                }
+            }
+            return QueryResponse.builder().items(items).build();
+        }
+
+        @Override
+        public UpdateItemResponse updateItem(UpdateItemRequest request) {
+            String id = request.key().get("UserPoolId").s();
+            String tenantId = request.expressionAttributeValues().get(":tenantId").s();
+            claimAttempts.add(id);
+            assertTrue(request.conditionExpression().contains("TenantId = :tenantId"));
+            String owner = claimedBy.get(id);
+            if (owner != null && !owner.equals(tenantId)) {
+                throw ConditionalCheckFailedException.builder().message("The conditional request failed").build();
+            }
+            claimedBy.put(id, tenantId);
+            return UpdateItemResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class Cognito implements CognitoIdentityProviderClient {
+        final Map<String, Map<String, String>> tags = new HashMap<>();
+        boolean failTagging = false;
+
+        @Override
+        public TagResourceResponse tagResource(TagResourceRequest request) {
+            if (failTagging) {
+                throw CognitoIdentityProviderException.builder().message("Rate exceeded").build();
+            }
+            tags.put(request.resourceArn(), request.tags());
+            return TagResourceResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "cognito-idp";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Tenant tenant() {
+        return new Tenant(UUID.randomUUID(), Boolean.TRUE, "Company", "Standard", null, null);
+    }
+
+    @Test
+    public void testClaimUserPoolClaimsAnAvailablePool() {
+        UserPools ddb = new UserPools();
+        ddb.available.add(userPool("pool-a"));
+        Cognito cognito = new Cognito();
+        Tenant tenant = tenant();
+        UserPoolClientType appClient = new RegistrationService(ddb, cognito, LISTENER).claimUserPool(tenant);
+        assertEquals("pool-a", appClient.userPoolId());
+        assertEquals("pool-a-client", appClient.clientId());
+        assertEquals(tenant.getId().toString(), ddb.claimedBy.get("pool-a"));
+        // Tagging is a separate onboarding step
+        assertTrue(cognito.tags.isEmpty());
+    }
+
+    @Test
+    public void testClaimUserPoolReturnsThePoolTheTenantAlreadyClaimed() {
+        UserPools ddb = new UserPools();
+        Tenant tenant = tenant();
+        ddb.available.add(userPool("pool-a"));
+        ddb.available.add(userPool("pool-b"));
+        ddb.claimedBy.put("pool-b", tenant.getId().toString());
+        UserPoolClientType appClient = new RegistrationService(ddb, new Cognito(), LISTENER).claimUserPool(tenant);
+        assertEquals("pool-b", appClient.userPoolId());
+        assertTrue(ddb.claimAttempts.isEmpty());
+        assertFalse(ddb.claimedBy.containsKey("pool-a"));
+    }
+
+    @Test
+    public void testClaimUserPoolSkipsPoolsTakenByAnotherRegistration() {
+        UserPools ddb = new UserPools() {
+            @Override
+            public QueryResponse query(QueryRequest request) {
+                // The index lags behind, so pools claimed elsewhere still show up as available
+                if ("Available-index".equals(request.indexName())) {
+                    return QueryResponse.builder().items(available).build();
+                }
+                return super.query(request);
+            }
+        };
+        ddb.available.add(userPool("pool-a"));
+        ddb.available.add(userPool("pool-b"));
+        ddb.claimedBy.put("pool-a", UUID.randomUUID().toString());
+        Tenant tenant = tenant();
+        UserPoolClientType appClient = new RegistrationService(ddb, new Cognito(), LISTENER).claimUserPool(tenant);
+        assertEquals("pool-b", appClient.userPoolId());
+        assertEquals(tenant.getId().toString(), ddb.claimedBy.get("pool-b"));
+    }
+
+    @Test
+    public void testClaimUserPoolReturnsNullWhenThePoolIsEmpty() {
+        UserPools ddb = new UserPools();
+        assertNull(new RegistrationService(ddb, new Cognito(), LISTENER).claimUserPool(tenant()));
+        assertTrue(ddb.claimAttempts.isEmpty());
+    }
+
+    @Test
+    public void testTagUserPoolBuildsThePoolArnFromTheListener() {
+        Cognito cognito = new Cognito();
+        Tenant tenant = tenant();
+        new RegistrationService(new UserPools(), cognito, LISTENER).tagUserPool("us-east-1_pool-a", tenant);
+        assertEquals(tenant.getId().toString(),
+                cognito.tags.get("arn:aws:cognito-idp:us-east-1:123456789012:userpool/us-east-1_pool-a").get("TenantId"));
+    }
+
+    @Test
+    public void testTagUserPoolIgnoresTaggingFailures() {
+        Cognito cognito = new Cognito();
+        cognito.failTagging = true;
+        new RegistrationService(new UserPools(), cognito, LISTENER).tagUserPool("us-east-1_pool-a", tenant());
+        assertTrue(cognito.tags.isEmpty());
+    }
+}
@@ -20,6 +20,7 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.AbstractMap;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,7 +43,12 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
     private final static Map<String, String> CORS = Stream
             .of(new AbstractMap.SimpleEntry<String, String>("Access-Control-Allow-Origin", "*"))
             .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-    private final TenantServiceDAL dal = new TenantServiceDAL();
+    private final static String NEXT_TOKEN_HEADER = "X-Next-Token";
+    private final static TenantServiceDAL DAL = new TenantServiceDAL();
+
+    static {
+        StartupManager.init("TenantService", TenantService::prime);
+    }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(Map<String, Object> event, Context context) {
@@ -49,34 +56,53 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
     }
 
     public APIGatewayProxyResponseEvent getTenants(Map<String, Object> event, Context context) {
-        Map<String, String> queryParams = (Map<String, String>) event.get("queryStringParameters");
-        if (queryParams != null && "warmup".equals(queryParams.get("source"))) {
-            LOGGER.info("Warming up");
-            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-        } else if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
         }
 
+        Map<String, String> queryParams = (Map<String, String>) event.get("queryStringParameters");
+
         long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("TenantService::getTenants");
-        List<Tenant> tenants = dal.getTenants();
-        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
-                .withStatusCode(200)
-                .withHeaders(CORS)
-                .withBody(toJson(tenants));
+        APIGatewayProxyResponseEvent response = null;
+        if (queryParams == null) {
+            queryParams = new HashMap<>();
+        }
+        try {
+            String plan = queryParams.get("plan");
+            Boolean active = queryParams.containsKey("active") ? Boolean.valueOf(queryParams.get("active")) : null;
+            Integer limit = queryParams.containsKey("limit") ? Integer.valueOf(queryParams.get("limit")) : null;
+            if (limit != null && limit < 1) {
+                throw new IllegalArgumentException("limit must be greater than 0");
+            }
+            TenantPage page = DAL.getTenants(plan, active, queryParams.get("companyName"), limit, queryParams.get("nextToken"));
+
+            // The body stays a plain list of tenants for existing callers and the
+            // continuation token for the next page rides along as a header
+            Map<String, String> headers = new HashMap<>(CORS);
+            headers.put("Access-Control-Expose-Headers", NEXT_TOKEN_HEADER);
+            if (page.getNextToken() != null) {
+                headers.put(NEXT_TOKEN_HEADER, page.getNextToken());
+            }
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(200)
+                    .withHeaders(headers)
+                    .withBody(toJson(page.getTenants()));
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("message", e.getMessage());
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(400)
+                    .withHeaders(CORS)
+                    .withBody(toJson(error));
+        }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantService::getTenants exec " + totalTimeMillis);
         return response;
     }
 
     public APIGatewayProxyResponseEvent getTenant(Map<String, Object> event, Context context) {
-        Map<String, String> queryParams = (Map<String, String>) event.get("queryStringParameters");
-        if (queryParams != null && "warmup".equals(queryParams.get("source"))) {
-            LOGGER.info("Warming up");
-            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-        } else if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
         }
 
@@ -85,30 +111,62 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
         Map<String, String> params = (Map) event.get("pathParameters");
         String tenantId = params.get("id");
         LOGGER.info("TenantService::getTenant " + tenantId);
-        Tenant tenant = dal.getTenant(tenantId);
-        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
-                .withStatusCode(200)
-                .withHeaders(CORS)
-                .withBody(toJson(tenant));
+        Tenant tenant = DAL.getTenant(tenantId);
+        APIGatewayProxyResponseEvent response;
+        if (tenant == null) {
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(404)
+                    .withHeaders(CORS);
+        } else {
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(200)
+                    .withHeaders(CORS)
+                    .withBody(toJson(tenant));
+        }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantService::getTenant exec " + totalTimeMillis);
         return response;
     }
 
+    /**
+     * Look up many tenants in one call. The request body is a JSON array of tenant ids.
+     * @param event
+     * @param context
+     * @return the tenants that exist in the order their ids were requested
+     */
+    public APIGatewayProxyResponseEvent getTenantsByIds(Map<String, Object> event, Context context) {
+        if (WarmupManager.warmup(event)) {
+            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("TenantService::getTenantsByIds");
+        APIGatewayProxyResponseEvent response = null;
+        List<String> tenantIds = null;
+        try {
+            tenantIds = MAPPER.readValue((String) event.get("body"), new TypeReference<List<String>>() {});
+        } catch (Exception e) {
+            LOGGER.error(getFullStackTrace(e));
+        }
+        if (tenantIds == null) {
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(400);
+        } else {
+            List<Tenant> tenants = DAL.getTenantsByIds(tenantIds);
+            response = new APIGatewayProxyResponseEvent()
+                    .withStatusCode(200)
+                    .withHeaders(CORS)
+                    .withBody(toJson(tenants));
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("TenantService::getTenantsByIds exec " + totalTimeMillis);
+        return response;
+    }
+
     public APIGatewayProxyResponseEvent insertTenant(Map<String, Object> event, Context context) {
         //logRequestEvent(event);
-        if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-        } else if (event.containsKey("body")) {
-            try {
-                Map<String, String> requestBody = MAPPER.readValue((String) event.get("body"), HashMap.class);
-                if (requestBody != null && "warmup".equals(requestBody.get("source"))) {
-                    LOGGER.info("Warming up");
-                    return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-                }
-            } catch (IOException e) {
-            }
         }
 
         long startTimeMillis = System.currentTimeMillis();
@@ -120,11 +178,17 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
             response = new APIGatewayProxyResponseEvent()
                     .withStatusCode(400);
         } else {
-            tenant = dal.insertTenant(tenant);
-            response = new APIGatewayProxyResponseEvent()
-                    .withStatusCode(200)
-                    .withHeaders(CORS)
-                    .withBody(toJson(tenant));
+            tenant = DAL.insertTenant(tenant);
+            if (tenant == null) {
+                response = new APIGatewayProxyResponseEvent()
+                        .withStatusCode(409)
+                        .withHeaders(CORS);
+            } else {
+                response = new APIGatewayProxyResponseEvent()
+                        .withStatusCode(200)
+                        .withHeaders(CORS)
+                        .withBody(toJson(tenant));
+            }
         }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantService::insertTenant exec " + totalTimeMillis);
@@ -132,8 +196,7 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
     }
 
     public APIGatewayProxyResponseEvent updateTenant(Map<String, Object> event, Context context) {
-        if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
         }
 
@@ -153,7 +216,7 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
                 response = new APIGatewayProxyResponseEvent()
                         .withStatusCode(400);
             } else {
-                tenant = dal.updateTenant(tenant);
+                tenant = DAL.updateTenant(tenant);
                 response = new APIGatewayProxyResponseEvent()
                         .withStatusCode(200)
                         .withHeaders(CORS)
@@ -166,8 +229,7 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
     }
 
     public APIGatewayProxyResponseEvent deleteTenant(Map<String, Object> event, Context context) {
-        if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
         }
 
@@ -187,7 +249,7 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
                 response = new APIGatewayProxyResponseEvent()
                         .withStatusCode(400);
             } else {
-                dal.deleteTenant(tenantId);
+                DAL.deleteTenant(tenantId);
                 //TODO remove Cognito UserPool
                 //TODO remove tenant's parameters from SSM
                 //TODO delete onboarding CFN stack
@@ -202,26 +264,41 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
     }
 
     /**
-     * <b>Not</b> thread-safe! - just throw-away sample code to avoid the delay in provisioning
-     * an RDS cluster when registering a tenant during the workshop.
+     * Run once by hand after deploying the active GSI, with
+     * aws lambda invoke --function-name saas-factory-srvls-wrkshp-tenants-backfill-{region}
+     * @param event
+     * @param context
+     * @return
+     */
+    public APIGatewayProxyResponseEvent backfillActiveKey(Map<String, Object> event, Context context) {
+        long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("TenantService::backfillActiveKey");
+        int updated = DAL.backfillActiveKey();
+        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent()
+                .withBody(toJson(Collections.singletonMap("updated", updated)))
+                .withStatusCode(200);
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("TenantService::backfillActiveKey exec " + totalTimeMillis);
+        return response;
+    }
+
+    /**
+     * Claims an unassigned RDS cluster from the hot pool to avoid the delay in provisioning
+     * an RDS cluster when registering a tenant during the workshop. Concurrent callers never
+     * receive the same cluster.
      * @param event
      * @param context
      * @return
      */
     public APIGatewayProxyResponseEvent nextAvailableDatabase(Map<String, Object> event, Context context) {
-        Map<String, String> queryParams = (Map<String, String>) event.get("queryStringParameters");
-        if (queryParams != null && "warmup".equals(queryParams.get("source"))) {
-            LOGGER.info("Warming up");
-            return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
-        } else if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
         }
 
         long startTimeMillis = System.currentTimeMillis();
         APIGatewayProxyResponseEvent response = null;
         LOGGER.info("TenantService::nextAvailableDatabase");
-        Map<String, String> rds = dal.nextAvailableDatabase();
+        Map<String, String> rds = DAL.nextAvailableDatabase();
         response = new APIGatewayProxyResponseEvent()
                 .withBody(toJson(rds))
                 .withHeaders(CORS)
@@ -232,8 +309,7 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
     }
 
     public APIGatewayProxyResponseEvent updateDatabase(Map<String, Object> event, Context context) {
-        if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
         }
 
@@ -253,7 +329,7 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
                 response = new APIGatewayProxyResponseEvent()
                         .withStatusCode(400);
             } else {
-                tenant = dal.updateDatabase(tenant);
+                tenant = DAL.updateDatabase(tenant);
                 response = new APIGatewayProxyResponseEvent()
                         .withBody(toJson(tenant))
                         .withHeaders(CORS)
@@ -266,8 +342,7 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
     }
 
     public APIGatewayProxyResponseEvent updateUserPool(Map<String, Object> event, Context context) {
-        if ("warmup".equals(event.get("source"))) {
-            LOGGER.info("Warming up");
+        if (WarmupManager.warmup(event)) {
             return new APIGatewayProxyResponseEvent().withHeaders(CORS).withStatusCode(200);
         }
 
@@ -287,7 +362,7 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
                 response = new APIGatewayProxyResponseEvent()
                         .withStatusCode(400);
             } else {
-                tenant = dal.updateUserPool(tenant);
+                tenant = DAL.updateUserPool(tenant);
                 response = new APIGatewayProxyResponseEvent()
                         .withBody(toJson(tenant))
                         .withHeaders(CORS)
@@ -309,6 +384,14 @@ public class TenantService implements RequestHandler<Map<String, Object>, APIGat
         return tenant;
     }
 
+    /**
+     * Run during init so Jackson has introspected the tenant type
+     * before the first real request needs it
+     */
+    private static void prime() {
+        fromJson(toJson(new Tenant()));
+    }
+
     private static String toJson(Object obj) {
         String json = null;
         try {
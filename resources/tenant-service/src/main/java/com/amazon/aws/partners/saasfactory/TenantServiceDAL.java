@@ -16,6 +16,8 @@
  */
 package com.amazon.aws.partners.saasfactory;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
@@ -23,48 +25,206 @@ import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class TenantServiceDAL {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(TenantServiceDAL.class);
+    private final static ObjectMapper MAPPER = new ObjectMapper();
     private final static String TENANT_TABLE = "saas-factory-srvls-wrkshp-tenants";
+    private final static String TENANT_PLAN_INDEX = "plan-companyName-index";
+    private final static String TENANT_ACTIVE_INDEX = "activeKey-companyName-index";
+    private final static String RDS_CLUSTERS_TABLE = "saas-factory-srvls-wrkshp-rds-clusters";
+    private final static String RDS_CLUSTERS_AVAILABLE_INDEX = "Available-index";
+    private final static int CLAIM_DATABASE_ATTEMPTS = 5;
+    private final static int CLAIM_DATABASE_CANDIDATES = 10;
+    private final static String USER_DIRECTORY_TABLE = "saas-factory-srvls-wrkshp-user-directory";
+    private final static String USER_DIRECTORY_TENANT_INDEX = "tenantId-index";
+    private final static int TENANT_CACHE_SIZE = 1000;
+    // BatchGetItem accepts at most 100 keys per request
+    private final static int BATCH_GET_SIZE = 100;
+    private final static int BATCH_GET_ATTEMPTS = 8;
+    private final static int BATCH_GET_THREADS = 8;
     private DynamoDbClient ddb;
+    // Each tenant service function has its own cache, so writes only invalidate the
+    // writer's copy. The other functions, TenantServiceGetById among them, can serve the
+    // old record for up to the TTL after an update or delete, which is why it is short.
+    private final NearCache<String, Tenant> tenantCache = new NearCache<>(
+            TimeUnit.SECONDS.toMillis(Long.parseLong(System.getenv().getOrDefault("TENANT_CACHE_TTL_SECONDS", "10"))),
+            TENANT_CACHE_SIZE
+    );
+    private final ExecutorService batchGetExecutor = Executors.newFixedThreadPool(BATCH_GET_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "tenant-batch-get");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public TenantServiceDAL() {
         this.ddb = DynamoDbClient.builder()
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(StartupManager.REGION)
+                .applyMutation(StartupManager::endpoint)
                 .build();
     }
 
-    public List<Tenant> getTenants() {
+    // For tests to hand in a stand-in client
+    TenantServiceDAL(DynamoDbClient ddb) {
+        this.ddb = ddb;
+    }
+
+    /**
+     * Returns one page of tenants. Filtering by plan or by active flag queries the matching
+     * GSI, which is sorted by company name so a company name prefix becomes part of the key
+     * condition. Without either filter the table is scanned a page at a time, so a company
+     * name prefix is only accepted together with a plan or active flag. On its own it would
+     * be a filtered Scan that reads the whole table to find a handful of tenants.
+     * @param plan optional plan to filter by
+     * @param active optional active flag to filter by
+     * @param companyNamePrefix optional company name prefix to filter by, requires plan or active
+     * @param limit optional maximum number of tenants to evaluate for this page
+     * @param nextToken continuation token from the previous page or null for the first page
+     * @return the tenants and the token for the next page, which is null on the last page
+     */
+    public TenantPage getTenants(String plan, Boolean active, String companyNamePrefix, Integer limit, String nextToken) {
         long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("TenantServiceDAL::getTenants");
         List<Tenant> tenants = new ArrayList<>();
+        Map<String, AttributeValue> lastEvaluatedKey = null;
         try {
-            ScanResponse response = ddb.scan(request -> request.tableName(TENANT_TABLE));
-            response.items().forEach(item ->
-                    tenants.add(fromAttributeValueMap(item))
-            );
+            final Map<String, AttributeValue> exclusiveStartKey = fromContinuationToken(nextToken);
+            final boolean prefixSearch = companyNamePrefix != null && !companyNamePrefix.isEmpty();
+            if (prefixSearch && plan == null && active == null) {
+                throw new IllegalArgumentException("companyName requires plan or active");
+            }
+            Map<String, String> names = new HashMap<>();
+            Map<String, AttributeValue> values = new HashMap<>();
+            if (prefixSearch) {
+                values.put(":prefix", AttributeValue.builder().s(companyNamePrefix).build());
+            }
+            if (plan != null || active != null) {
+                final String indexName;
+                final String keyCondition;
+                String filter = null;
+                if (plan != null) {
+                    indexName = TENANT_PLAN_INDEX;
+                    names.put("#plan", "plan");
+                    values.put(":plan", AttributeValue.builder().s(plan).build());
+                    keyCondition = "#plan = :plan" + (prefixSearch ? " AND begins_with(companyName, :prefix)" : "");
+                    if (active != null) {
+                        values.put(":active", AttributeValue.builder().s(active.toString()).build());
+                        filter = "activeKey = :active";
+                    }
+                } else {
+                    indexName = TENANT_ACTIVE_INDEX;
+                    values.put(":active", AttributeValue.builder().s(active.toString()).build());
+                    keyCondition = "activeKey = :active" + (prefixSearch ? " AND begins_with(companyName, :prefix)" : "");
+                }
+                final String filterExpression = filter;
+                QueryResponse response = ddb.query(request -> request
+                        .tableName(TENANT_TABLE)
+                        .indexName(indexName)
+                        .keyConditionExpression(keyCondition)
+                        .filterExpression(filterExpression)
+                        .expressionAttributeNames(names.isEmpty() ? null : names)
+                        .expressionAttributeValues(values)
+                        .exclusiveStartKey(exclusiveStartKey)
+                        .limit(limit)
+                );
+                response.items().forEach(item -> tenants.add(fromAttributeValueMap(item)));
+                lastEvaluatedKey = response.lastEvaluatedKey();
+            } else {
+                ScanResponse response = ddb.scan(request -> request
+                        .tableName(TENANT_TABLE)
+                        .exclusiveStartKey(exclusiveStartKey)
+                        .limit(limit)
+                );
+                response.items().forEach(item -> tenants.add(fromAttributeValueMap(item)));
+                lastEvaluatedKey = response.lastEvaluatedKey();
+            }
         } catch (DynamoDbException e) {
             LOGGER.error("TenantServiceDAL::getTenants " + getFullStackTrace(e));
             throw new RuntimeException(e);
         }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantServiceDAL::getTenants exec " + totalTimeMillis);
-        return tenants;
+        return new TenantPage(tenants, toContinuationToken(lastEvaluatedKey));
+    }
+
+    /**
+     * One-off backfill of the activeKey attribute the active GSI is keyed on, for tenants
+     * written before the index existed. Those tenants are missing from active filtered
+     * listings until this has run. Safe to run more than once, and it won't overwrite an
+     * activeKey written by a concurrent update.
+     * @return the number of tenants updated
+     */
+    public int backfillActiveKey() {
+        long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("TenantServiceDAL::backfillActiveKey");
+        int updated = 0;
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        try {
+            do {
+                final Map<String, AttributeValue> exclusiveStartKey = lastEvaluatedKey;
+                ScanResponse response = ddb.scan(request -> request
+                        .tableName(TENANT_TABLE)
+                        .projectionExpression("id, active")
+                        .filterExpression("attribute_exists(active) AND attribute_not_exists(activeKey)")
+                        .exclusiveStartKey(exclusiveStartKey)
+                );
+                for (Map<String, AttributeValue> item : response.items()) {
+                    try {
+                        ddb.updateItem(request -> request
+                                .tableName(TENANT_TABLE)
+                                .key(Collections.singletonMap("id", item.get("id")))
+                                .updateExpression("SET activeKey = :active")
+                                .conditionExpression("attribute_exists(id) AND attribute_not_exists(activeKey)")
+                                .expressionAttributeValues(Collections.singletonMap(":active",
+                                        AttributeValue.builder().s(item.get("active").bool().toString()).build()))
+                        );
+                        updated++;
+                    } catch (ConditionalCheckFailedException alreadySet) {
+                        // Deleted, or rewritten with its activeKey since the scan read it
+                    }
+                }
+                lastEvaluatedKey = response.lastEvaluatedKey();
+            } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+        } catch (DynamoDbException e) {
+            LOGGER.error("TenantServiceDAL::backfillActiveKey " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("TenantServiceDAL::backfillActiveKey updated " + updated + " exec " + totalTimeMillis);
+        return updated;
     }
 
     public Tenant getTenant(UUID tenantId) {
         return getTenant(tenantId.toString());
     }
 
+    /**
+     * @param tenantId
+     * @return the tenant or null if there is no such tenant
+     */
     public Tenant getTenant(String tenantId) {
+        // A miss loads null, which the cache doesn't keep
+        return tenantCache.get(tenantId, this::loadTenant);
+    }
+
+    private Tenant loadTenant(String tenantId) {
         long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("TenantServiceDAL::getTenant");
         Map<String, AttributeValue> item = null;
@@ -79,53 +239,112 @@ public class TenantServiceDAL {
         }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantServiceDAL::getTenant exec " + totalTimeMillis);
+        if (item == null || item.isEmpty()) {
+            return null;
+        }
         return fromAttributeValueMap(item);
     }
 
+    /**
+     * Fetch many tenants at once. The ids are split into BatchGetItem requests of 100 keys
+     * which run concurrently, and any UnprocessedKeys are retried with exponential backoff.
+     * @param tenantIds
+     * @return the tenants that exist in the order their ids were requested
+     */
+    public List<Tenant> getTenantsByIds(Collection<String> tenantIds) {
+        long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("TenantServiceDAL::getTenantsByIds " + tenantIds.size());
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(tenantIds));
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> batches = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += BATCH_GET_SIZE) {
+            List<String> batch = ids.subList(i, Math.min(i + BATCH_GET_SIZE, ids.size()));
+            batches.add(CompletableFuture.supplyAsync(() -> batchGetTenants(batch), batchGetExecutor));
+        }
+
+        Map<String, Tenant> tenantsById = new HashMap<>();
+        try {
+            for (CompletableFuture<List<Map<String, AttributeValue>>> batch : batches) {
+                for (Map<String, AttributeValue> item : batch.join()) {
+                    Tenant tenant = fromAttributeValueMap(item);
+                    tenantsById.put(tenant.getId().toString(), tenant);
+                }
+            }
+        } catch (CompletionException e) {
+            LOGGER.error("TenantServiceDAL::getTenantsByIds " + getFullStackTrace(e));
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        }
+
+        List<Tenant> tenants = new ArrayList<>();
+        for (String id : ids) {
+            Tenant tenant = tenantsById.get(id);
+            if (tenant != null) {
+                tenants.add(tenant);
+            }
+        }
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("TenantServiceDAL::getTenantsByIds exec " + totalTimeMillis);
+        return tenants;
+    }
+
+    private List<Map<String, AttributeValue>> batchGetTenants(List<String> tenantIds) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        for (String tenantId : tenantIds) {
+            keys.add(Collections.singletonMap("id", AttributeValue.builder().s(tenantId).build()));
+        }
+        Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(TENANT_TABLE, KeysAndAttributes.builder().keys(keys).build());
+        try {
+            for (int attempt = 0; requestItems != null && !requestItems.isEmpty(); attempt++) {
+                if (attempt >= BATCH_GET_ATTEMPTS) {
+                    throw new RuntimeException("BatchGetItem still had unprocessed keys after " + BATCH_GET_ATTEMPTS + " attempts");
+                }
+                if (attempt > 0) {
+                    Thread.sleep(Math.min(1000L, 25L << attempt) + ThreadLocalRandom.current().nextInt(25));
+                }
+                final Map<String, KeysAndAttributes> unprocessed = requestItems;
+                BatchGetItemResponse response = ddb.batchGetItem(request -> request.requestItems(unprocessed));
+                if (response.responses().containsKey(TENANT_TABLE)) {
+                    items.addAll(response.responses().get(TENANT_TABLE));
+                }
+                requestItems = response.unprocessedKeys();
+            }
+        } catch (DynamoDbException e) {
+            LOGGER.error("TenantServiceDAL::batchGetTenants " + getFullStackTrace(e));
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        return items;
+    }
+
+    /**
+     * Inserts a new tenant, generating its id unless the caller supplied one. Callers that
+     * retry, like the registration worker, pass the same id every time and the put only
+     * succeeds once.
+     * @param tenant
+     * @return the new tenant or null if a tenant with the requested id already exists
+     */
     public Tenant insertTenant(Tenant tenant) {
         long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("TenantServiceDAL::insertTenant");
-        UUID tenantId = UUID.randomUUID();
-        tenant.setId(tenantId);
+        if (tenant.getId() == null) {
+            tenant.setId(UUID.randomUUID());
+        }
         tenant.setActive(Boolean.TRUE);
         try {
             Map<String, AttributeValue> item = toAttributeValueMap(tenant);
-            PutItemResponse response = ddb.putItem(request -> request.tableName(TENANT_TABLE).item(item));
+            PutItemResponse response = ddb.putItem(request -> request
+                    .tableName(TENANT_TABLE)
+                    .item(item)
+                    .conditionExpression("attribute_not_exists(id)")
+            );
             long putItemTimeMillis = System.currentTimeMillis() - startTimeMillis;
             LOGGER.info("TenantServiceDAL::insertTenant PutItem exec " + putItemTimeMillis);
 
-            // Bit of a hack here to keep our record keeping of RDS clusters up-to-date
-            if (tenant.getDatabase() != null && !tenant.getDatabase().isEmpty()) {
-                long scanStartTimeMillis = System.currentTimeMillis();
-                ScanResponse scan = ddb.scan(request -> request
-                        .tableName("saas-factory-srvls-wrkshp-rds-clusters")
-                        .filterExpression("Endpoint = :host")
-                        .expressionAttributeValues(Stream
-                                .of(new AbstractMap.SimpleEntry<String, AttributeValue>(":host", AttributeValue.builder().s(tenant.getDatabase()).build()))
-                                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
-                        )
-                );
-                long scanTimeMillis = System.currentTimeMillis() - scanStartTimeMillis;
-                LOGGER.info("TenantServiceDAL::insertTenant Scan exec " + scanTimeMillis);
-
-                if (!scan.items().isEmpty()) {
-                    long updateItemStartTimeMillis = System.currentTimeMillis();
-                    Map<String, AttributeValue> rdsHousekeepingItem = scan.items().get(0);
-                    Map<String, AttributeValue> updateKey = new HashMap<>();
-                    updateKey.put("DBClusterIdentifier", AttributeValue.builder().s(rdsHousekeepingItem.get("DBClusterIdentifier").s()).build());
-                    ddb.updateItem(request -> request
-                            .tableName("saas-factory-srvls-wrkshp-rds-clusters")
-                            .key(updateKey)
-                            .updateExpression("SET TenantId = :tenantId")
-                            .expressionAttributeValues(Stream
-                                    .of(new AbstractMap.SimpleEntry<String, AttributeValue>(":tenantId", AttributeValue.builder().s(tenant.getId().toString()).build()))
-                                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
-                            )
-                    );
-                    long updateItemTimeMills = System.currentTimeMillis() - updateItemStartTimeMillis;
-                    LOGGER.info("TenantServiceDAL::insertTenant UpdateItem exec " + scanTimeMillis);
-                }
-            }
+        } catch (ConditionalCheckFailedException e) {
+            LOGGER.info("TenantServiceDAL::insertTenant tenant " + tenant.getId() + " already exists");
+            return null;
         } catch (DynamoDbException e) {
             LOGGER.error("TenantServiceDAL::insertTenant " + getFullStackTrace(e));
             throw new RuntimeException(e);
@@ -142,11 +361,21 @@ public class TenantServiceDAL {
         LOGGER.info("TenantServiceDAL::updateTenant");
         try {
             Map<String, AttributeValue> item = toAttributeValueMap(tenant);
-            PutItemResponse response = ddb.putItem(request -> request.tableName(TENANT_TABLE).item(item));
+            PutItemResponse response = ddb.putItem(request -> request
+                    .tableName(TENANT_TABLE)
+                    .item(item)
+                    .returnValues(ReturnValue.ALL_OLD)
+            );
+            Tenant previous = fromAttributeValueMap(response.attributes());
+            if (previous != null && previous.getUserPool() != null
+                    && !previous.getUserPool().equals(tenant.getUserPool())) {
+                evictUserDirectory(tenant.getId().toString(), tenant.getUserPool());
+            }
         } catch (DynamoDbException e) {
             LOGGER.error("TenantServiceDAL::updateTenant " + getFullStackTrace(e));
             throw new RuntimeException(e);
         }
+        tenantCache.invalidate(tenant.getId().toString());
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantServiceDAL::updateTenant exec " + totalTimeMillis);
         return tenant;
@@ -174,6 +403,7 @@ public class TenantServiceDAL {
             LOGGER.error("TenantServiceDAL::updateDatabase " + getFullStackTrace(e));
             throw new RuntimeException(e);
         }
+        tenantCache.invalidate(tenant.getId().toString());
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantServiceDAL::updateDatabase exec " + totalTimeMillis);
         return updated;
@@ -197,10 +427,12 @@ public class TenantServiceDAL {
                     .returnValues(ReturnValue.ALL_NEW)
             );
             updated = fromAttributeValueMap(response.attributes());
+            evictUserDirectory(tenant.getId().toString(), tenant.getUserPool());
         } catch (DynamoDbException e) {
             LOGGER.error("TenantServiceDAL::updateUserPool " + getFullStackTrace(e));
             throw new RuntimeException(e);
         }
+        tenantCache.invalidate(tenant.getId().toString());
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantServiceDAL::updateUserPool exec " + totalTimeMillis);
         return updated;
@@ -218,34 +450,109 @@ public class TenantServiceDAL {
             Map<String, AttributeValue> key = new HashMap<>();
             key.put("id", AttributeValue.builder().s(tenantId).build());
             DeleteItemResponse response = ddb.deleteItem(request -> request.tableName(TENANT_TABLE).key(key));
+            evictUserDirectory(tenantId, null);
         } catch (DynamoDbException e) {
             LOGGER.error("TenantServiceDAL::deleteTenant " + getFullStackTrace(e));
             throw new RuntimeException(e);
         }
+        tenantCache.invalidate(tenantId);
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantServiceDAL::deleteTenant exec " + totalTimeMillis);
         return;
     }
 
+    /**
+     * Remove this tenant's sign-in directory entries that no longer point at its
+     * current user pool so the AuthService can't resolve users to a stale pool or
+     * app client. Pass a null user pool to remove all of the tenant's entries.
+     * @param tenantId
+     * @param currentUserPool
+     */
+    protected void evictUserDirectory(String tenantId, String currentUserPool) {
+        long startTimeMillis = System.currentTimeMillis();
+        LOGGER.info("TenantServiceDAL::evictUserDirectory " + tenantId);
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        do {
+            final Map<String, AttributeValue> exclusiveStartKey = lastEvaluatedKey;
+            QueryResponse response = ddb.query(request -> request
+                    .tableName(USER_DIRECTORY_TABLE)
+                    .indexName(USER_DIRECTORY_TENANT_INDEX)
+                    .keyConditionExpression("tenantId = :tenantId")
+                    .expressionAttributeValues(Collections.singletonMap(":tenantId", AttributeValue.builder().s(tenantId).build()))
+                    .exclusiveStartKey(exclusiveStartKey)
+            );
+            for (Map<String, AttributeValue> entry : response.items()) {
+                AttributeValue userPoolId = entry.get("userPoolId");
+                if (currentUserPool == null || userPoolId == null || !currentUserPool.equals(userPoolId.s())) {
+                    ddb.deleteItem(request -> request
+                            .tableName(USER_DIRECTORY_TABLE)
+                            .key(Collections.singletonMap("username", entry.get("username")))
+                    );
+                }
+            }
+            lastEvaluatedKey = response.lastEvaluatedKey();
+        } while (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty());
+        long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
+        LOGGER.info("TenantServiceDAL::evictUserDirectory exec " + totalTimeMillis);
+    }
+
+    /**
+     * Atomically claim an unassigned RDS cluster from the hot pool. Free clusters are the only
+     * items in the sparse Available-index GSI, so finding candidates is a single Query. The
+     * claim is a conditional UpdateItem that removes the Available attribute, so if two
+     * registrations race for the same cluster exactly one of them wins and the other moves on
+     * to the next candidate or re-queries after a short backoff.
+     * @return the claimed cluster's DBClusterIdentifier and Endpoint or an empty map if the
+     * hot pool has been depleted
+     */
     public Map<String, String> nextAvailableDatabase() {
         long startTimeMillis = System.currentTimeMillis();
         LOGGER.info("TenantServiceDAL::nextAvailableDatabase");
         Map<String, String> availableDatabase = new HashMap<>();
         try {
-            // Get the records from our pool management table that haven't
-            // been assigned to a tenant yet
-            ScanResponse response = ddb.scan(request -> request
-                    .tableName("saas-factory-srvls-wrkshp-rds-clusters")
-                    .filterExpression("attribute_not_exists(TenantId)")
-            );
-            if (!response.items().isEmpty()) {
-                Map<String, AttributeValue> item = response.items().get(0);
-                availableDatabase.put("DBClusterIdentifier", item.get("DBClusterIdentifier").s());
-                availableDatabase.put("Endpoint", item.get("Endpoint").s());
+            Map<String, AttributeValue> claimValues = new HashMap<>();
+            claimValues.put(":now", AttributeValue.builder().s(Instant.now().toString()).build());
+            for (int attempt = 0; attempt < CLAIM_DATABASE_ATTEMPTS && availableDatabase.isEmpty(); attempt++) {
+                if (attempt > 0) {
+                    Thread.sleep((25L << attempt) + ThreadLocalRandom.current().nextInt(25));
+                }
+                QueryResponse response = ddb.query(request -> request
+                        .tableName(RDS_CLUSTERS_TABLE)
+                        .indexName(RDS_CLUSTERS_AVAILABLE_INDEX)
+                        .keyConditionExpression("Available = :available")
+                        .expressionAttributeValues(Collections.singletonMap(":available", AttributeValue.builder().s("true").build()))
+                        .limit(CLAIM_DATABASE_CANDIDATES)
+                );
+                if (response.items().isEmpty()) {
+                    break;
+                }
+                // Spread concurrent claimers across the candidates instead of all
+                // fighting over the first one
+                List<Map<String, AttributeValue>> candidates = new ArrayList<>(response.items());
+                Collections.shuffle(candidates);
+                for (Map<String, AttributeValue> candidate : candidates) {
+                    try {
+                        ddb.updateItem(request -> request
+                                .tableName(RDS_CLUSTERS_TABLE)
+                                .key(Collections.singletonMap("DBClusterIdentifier", candidate.get("DBClusterIdentifier")))
+                                .conditionExpression("attribute_exists(Available) AND attribute_not_exists(TenantId)")
+                                .updateExpression("SET ClaimedAt = :now REMOVE Available")
+                                .expressionAttributeValues(claimValues)
+                        );
+                        availableDatabase.put("DBClusterIdentifier", candidate.get("DBClusterIdentifier").s());
+                        availableDatabase.put("Endpoint", candidate.get("Endpoint").s());
+                        break;
+                    } catch (ConditionalCheckFailedException claimed) {
+                        // Another registration got here first
+                    }
+                }
             }
         } catch (DynamoDbException e) {
             LOGGER.error("TenantServiceDAL::nextAvailableDatabase " + getFullStackTrace(e));
             throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
         long totalTimeMillis = System.currentTimeMillis() - startTimeMillis;
         LOGGER.info("TenantServiceDAL::nextAvailableDatabase exec " + totalTimeMillis);
@@ -257,6 +564,8 @@ public class TenantServiceDAL {
         item.put("id", AttributeValue.builder().s(tenant.getId().toString()).build());
         if (tenant.getActive() != null) {
             item.put("active", AttributeValue.builder().bool(tenant.getActive()).build());
+            // GSI keys can't be booleans so keep a string copy to index on
+            item.put("activeKey", AttributeValue.builder().s(tenant.getActive().toString()).build());
         }
         if (tenant.getCompanyName() != null && !tenant.getCompanyName().isEmpty()) {
             item.put("companyName", AttributeValue.builder().s(tenant.getCompanyName()).build());
@@ -299,6 +608,42 @@ public class TenantServiceDAL {
         return tenant;
     }
 
+    // Every key attribute on the table and its indexes is a string, so the last evaluated
+    // key round trips as a flat map of strings
+    private static String toContinuationToken(Map<String, AttributeValue> lastEvaluatedKey) {
+        String token = null;
+        if (lastEvaluatedKey != null && !lastEvaluatedKey.isEmpty()) {
+            Map<String, String> key = new HashMap<>();
+            lastEvaluatedKey.forEach((name, value) -> key.put(name, value.s()));
+            try {
+                token = Base64.getUrlEncoder().encodeToString(MAPPER.writeValueAsBytes(key));
+            } catch (IOException e) {
+                LOGGER.error("TenantServiceDAL::toContinuationToken " + getFullStackTrace(e));
+                throw new RuntimeException(e);
+            }
+        }
+        return token;
+    }
+
+    private static Map<String, AttributeValue> fromContinuationToken(String token) {
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        if (token != null && !token.isEmpty()) {
+            try {
+                Map<String, String> key = MAPPER.readValue(
+                        new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8),
+                        new TypeReference<Map<String, String>>() {}
+                );
+                exclusiveStartKey = new HashMap<>();
+                for (Map.Entry<String, String> attribute : key.entrySet()) {
+                    exclusiveStartKey.put(attribute.getKey(), AttributeValue.builder().s(attribute.getValue()).build());
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid continuation token", e);
+            }
+        }
+        return exclusiveStartKey;
+    }
+
     private static String getFullStackTrace(Exception e) {
         final StringWriter sw = new StringWriter();
         final PrintWriter pw = new PrintWriter(sw, true);
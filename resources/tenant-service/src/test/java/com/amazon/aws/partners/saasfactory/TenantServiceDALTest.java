@@ -0,0 +1,289 @@
+/**
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.amazon.aws.partners.saasfactory;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TenantServiceDALTest {
+
+    private static Map<String, AttributeValue> cluster(String id) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("DBClusterIdentifier", AttributeValue.builder().s(id).build());
+        item.put("Endpoint", AttributeValue.builder().s(id + ".cluster.local").build());
+        item.put("Available", AttributeValue.builder().s("true").build());
+        return item;
+    }
+
+    /**
+     * Stands in for the hot pool table. Each query returns the next page of candidates, and
+     * a claim fails its condition for any cluster in claimedElsewhere, like it would if a
+     * concurrent registration had already won it.
+     */
+    private static class HotPool implements DynamoDbClient {
+        final Deque<List<Map<String, AttributeValue>>> queries = new ArrayDeque<>();
+        final Set<String> claimedElsewhere = new HashSet<>();
+        final List<String> claimAttempts = new ArrayList<>();
+        int queryCount = 0;
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            queryCount++;
+            assertEquals("Available-index", request.indexName());
+            List<Map<String, AttributeValue>> items = queries.isEmpty() ? Collections.emptyList() : queries.poll();
+            return QueryResponse.builder().items(items).build();
+        }
+
+        @Override
+        public UpdateItemResponse updateItem(UpdateItemRequest request) {
+            String id = request.key().get("DBClusterIdentifier").s();
+            claimAttempts.add(id);
+            assertTrue(request.conditionExpression().contains("attribute_exists(Available)"));
+            assertTrue(request.conditionExpression().contains("attribute_not_exists(TenantId)"));
+            if (!claimedElsewhere.add(id)) {
+                throw ConditionalCheckFailedException.builder().message("The conditional request failed").build();
+            }
+            return UpdateItemResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testClaimSkipsClustersTakenByAnotherRegistration() {
+        HotPool ddb = new HotPool();
+        ddb.queries.add(Arrays.asList(cluster("a"), cluster("b"), cluster("c")));
+        ddb.claimedElsewhere.add("a");
+        ddb.claimedElsewhere.add("c");
+        Map<String, String> claimed = new TenantServiceDAL(ddb).nextAvailableDatabase();
+        assertEquals("b", claimed.get("DBClusterIdentifier"));
+        assertEquals("b.cluster.local", claimed.get("Endpoint"));
+        assertEquals(1, ddb.queryCount);
+    }
+
+    @Test
+    public void testClaimRequeriesWhenEveryCandidateIsTaken() {
+        HotPool ddb = new HotPool();
+        ddb.queries.add(Arrays.asList(cluster("a"), cluster("b")));
+        ddb.queries.add(Collections.singletonList(cluster("c")));
+        ddb.claimedElsewhere.add("a");
+        ddb.claimedElsewhere.add("b");
+        Map<String, String> claimed = new TenantServiceDAL(ddb).nextAvailableDatabase();
+        assertEquals("c", claimed.get("DBClusterIdentifier"));
+        assertEquals(2, ddb.queryCount);
+        assertEquals(3, ddb.claimAttempts.size());
+    }
+
+    @Test
+    public void testClaimGivesUpWhenThePoolIsEmpty() {
+        HotPool ddb = new HotPool();
+        Map<String, String> claimed = new TenantServiceDAL(ddb).nextAvailableDatabase();
+        assertTrue(claimed.isEmpty());
+        assertEquals(1, ddb.queryCount);
+        assertTrue(ddb.claimAttempts.isEmpty());
+    }
+
+    @Test
+    public void testClaimStopsAfterMaxAttempts() {
+        HotPool ddb = new HotPool();
+        for (int i = 0; i < 10; i++) {
+            // The index is eventually consistent, so a lost cluster can keep showing up
+            ddb.queries.add(Collections.singletonList(cluster("a")));
+        }
+        ddb.claimedElsewhere.add("a");
+        Map<String, String> claimed = new TenantServiceDAL(ddb).nextAvailableDatabase();
+        assertTrue(claimed.isEmpty());
+        assertEquals(5, ddb.queryCount);
+    }
+
+    @Test
+    public void testConcurrentClaimsNeverShareACluster() throws Exception {
+        HotPool ddb = new HotPool() {
+            @Override
+            public synchronized QueryResponse query(QueryRequest request) {
+                // Every claimer sees the whole pool, only the conditional update picks a winner
+                queryCount++;
+                return QueryResponse.builder().items(Arrays.asList(cluster("a"), cluster("b"), cluster("c"), cluster("d"))).build();
+            }
+
+            @Override
+            public synchronized UpdateItemResponse updateItem(UpdateItemRequest request) {
+                return super.updateItem(request);
+            }
+        };
+        TenantServiceDAL dal = new TenantServiceDAL(ddb);
+        List<Thread> threads = new ArrayList<>();
+        List<String> winners = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 6; i++) {
+            Thread thread = new Thread(() -> {
+                String id = dal.nextAvailableDatabase().get("DBClusterIdentifier");
+                if (id != null) {
+                    winners.add(id);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4, winners.size());
+        assertEquals(4, new HashSet<>(winners).size());
+    }
+
+    /**
+     * Stands in for the tenant table behind BatchGetItem. The first time a key is asked for
+     * it comes back in UnprocessedKeys, like it would when the table is throttling.
+     */
+    private static class ThrottledTenants implements DynamoDbClient {
+        final Set<String> tenantIds = new HashSet<>();
+        final Set<String> throttled = new HashSet<>();
+        final List<Integer> requestSizes = new ArrayList<>();
+        boolean alwaysThrottle = false;
+
+        @Override
+        public synchronized BatchGetItemResponse batchGetItem(BatchGetItemRequest request) {
+            assertEquals(1, request.requestItems().size());
+            KeysAndAttributes keys = request.requestItems().get("saas-factory-srvls-wrkshp-tenants");
+            requestSizes.add(keys.keys().size());
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            List<Map<String, AttributeValue>> unprocessed = new ArrayList<>();
+            for (Map<String, AttributeValue> key : keys.keys()) {
+                String id = key.get("id").s();
+                if (alwaysThrottle || throttled.add(id)) {
+                    unprocessed.add(key);
+                } else if (tenantIds.contains(id)) {
+                    items.add(key);
+                }
+            }
+            BatchGetItemResponse.Builder response = BatchGetItemResponse.builder()
+                    .responses(Collections.singletonMap("saas-factory-srvls-wrkshp-tenants", items));
+            if (!unprocessed.isEmpty()) {
+                response.unprocessedKeys(Collections.singletonMap("saas-factory-srvls-wrkshp-tenants",
+                        KeysAndAttributes.builder().keys(unprocessed).build()));
+            }
+            return response.build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testBatchGetRetriesUnprocessedKeys() {
+        ThrottledTenants ddb = new ThrottledTenants();
+        List<String> requested = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            String id = UUID.randomUUID().toString();
+            requested.add(id);
+            // Every fifth tenant doesn't exist
+            if (i % 5 != 0) {
+                ddb.tenantIds.add(id);
+            }
+        }
+        List<Tenant> tenants = new TenantServiceDAL(ddb).getTenantsByIds(requested);
+        assertEquals(200, tenants.size());
+        Iterator<Tenant> found = tenants.iterator();
+        for (String id : requested) {
+            if (ddb.tenantIds.contains(id)) {
+                assertEquals(id, found.next().getId().toString());
+            }
+        }
+        // Three batches of at most 100 keys, each retried once for its unprocessed keys
+        assertEquals(6, ddb.requestSizes.size());
+        for (Integer size : ddb.requestSizes) {
+            assertTrue(size <= 100);
+        }
+    }
+
+    @Test
+    public void testBatchGetGivesUpOnKeysThatStayUnprocessed() {
+        ThrottledTenants ddb = new ThrottledTenants();
+        ddb.alwaysThrottle = true;
+        String id = UUID.randomUUID().toString();
+        ddb.tenantIds.add(id);
+        try {
+            new TenantServiceDAL(ddb).getTenantsByIds(Collections.singletonList(id));
+            fail("Expected the batch get to give up");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("unprocessed keys"));
+        }
+        assertEquals(8, ddb.requestSizes.size());
+    }
+
+    /**
+     * Stands in for the tenant table behind GetItem. Like DynamoDB, a missing key comes back
+     * as an empty item rather than null.
+     */
+    private static class Tenants implements DynamoDbClient {
+        final Set<String> tenantIds = new HashSet<>();
+        int gets = 0;
+
+        @Override
+        public GetItemResponse getItem(GetItemRequest request) {
+            gets++;
+            String id = request.key().get("id").s();
+            Map<String, AttributeValue> item = new HashMap<>();
+            if (tenantIds.contains(id)) {
+                item.put("id", AttributeValue.builder().s(id).build());
+            }
+            return GetItemResponse.builder().item(item).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testMissingTenantIsNotCached() {
+        Tenants ddb = new Tenants();
+        TenantServiceDAL dal = new TenantServiceDAL(ddb);
+        String id = UUID.randomUUID().toString();
+        assertNull(dal.getTenant(id));
+        // Created after the miss, like a registration that was still in flight
+        ddb.tenantIds.add(id);
+        assertEquals(id, dal.getTenant(id).getId().toString());
+        assertEquals(2, ddb.gets);
+        // Now it's found, it is cached
+        dal.getTenant(id);
+        assertEquals(2, ddb.gets);
+    }
+}
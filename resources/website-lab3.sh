@@ -65,9 +65,9 @@ aws s3 sync ./build/ s3://$S3_WEBSITE_BUCKET/ --delete --cache-control no-store
 # Order Service lambdas are cold. Warm them up to improve the workshop experience.
 curl -s -H "Accept: application/json" -H "Content-Type: application/json" "$API_GATEWAY_URL/orders" > /dev/null
 #curl -s -H "Accept: application/json" -H "Content-Type: application/json" "$API_GATEWAY_URL/orders/00000000-0000-0000-0000-000000000000?source=warmup" > /dev/null
-#curl -s -H "Accept: application/json" -H "Content-Type: application/json" -X POST -d '{"source":"warmup"}' "$API_GATEWAY_URL/orders" > /dev/null
-#curl -s -H "Accept: application/json" -H "Content-Type: application/json" -X PUT -d '{"source":"warmup"}' "$API_GATEWAY_URL/orders/00000000-0000-0000-0000-000000000000" > /dev/null
-#curl -s -H "Accept: application/json" -H "Content-Type: application/json" -X DELETE -d '{"source":"warmup"}' "$API_GATEWAY_URL/orders/00000000-0000-0000-0000-000000000000" > /dev/null
+#curl -s -H "Accept: application/json" -H "Content-Type: application/json" -X POST "$API_GATEWAY_URL/orders?source=warmup" > /dev/null
+#curl -s -H "Accept: application/json" -H "Content-Type: application/json" -X PUT "$API_GATEWAY_URL/orders/00000000-0000-0000-0000-000000000000?source=warmup" > /dev/null
+#curl -s -H "Accept: application/json" -H "Content-Type: application/json" -X DELETE "$API_GATEWAY_URL/orders/00000000-0000-0000-0000-000000000000?source=warmup" > /dev/null
 
 echo
 echo "Access your website at..."